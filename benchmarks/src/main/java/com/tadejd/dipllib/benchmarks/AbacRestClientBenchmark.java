@@ -0,0 +1,112 @@
+package com.tadejd.dipllib.benchmarks;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import com.tadejd.dipllib.client.AbacRestClientImpl;
+import com.tadejd.dipllib.config.AbacProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a round trip of {@link AbacRestClientImpl#executeMulti} and {@link AbacRestClientImpl#executeMultiAsync}
+ * against a local stub ABAC server that answers with pre-serialized decisions, which leaves mostly the cost of
+ * serializing the context and reading the decisions.
+ *
+ * @author Tadej Delopst
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AbacRestClientBenchmark {
+	private static final String POLICY_NAME = "BENCHMARK_PATIENT";
+
+	@Param({"1", "100", "1000"})
+	public int contextEntries;
+
+	@Param({"true", "false"})
+	public boolean http2;
+
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private AbacRestClientImpl client;
+	private List<Map<String, Object>> context;
+
+	@Setup
+	public void setUp() throws IOException {
+		byte[] response = new ObjectMapper()
+			.writerFor(new TypeReference<List<EvaluationExpression>>() {})
+			.writeValueAsBytes(Collections.nCopies(contextEntries, BenchmarkFixtures.genderDecision()));
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/rest/v1/policy/execute/name/", exchange -> {
+			try (InputStream body = exchange.getRequestBody()) {
+				body.readAllBytes();
+			}
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, response.length);
+			try (OutputStream body = exchange.getResponseBody()) {
+				body.write(response);
+			}
+		});
+		serverExecutor = Executors.newFixedThreadPool(4);
+		server.setExecutor(serverExecutor);
+		server.start();
+
+		AbacProperties.Http http = new AbacProperties.Http();
+		http.setHttp2(http2);
+		client = new AbacRestClientImpl("http://localhost:" + server.getAddress().getPort(), http);
+
+		context = new ArrayList<>(contextEntries);
+		for (int i = 0; i < contextEntries; i++) {
+			Map<String, Object> entry = new HashMap<>();
+			entry.put("gender", i % 2 == 0 ? "female" : "male");
+			entry.put("careTeamName", List.of("oncology", "cardiology"));
+			context.add(entry);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Benchmark
+	public List<EvaluationExpression> executeMulti() {
+		return client.executeMulti(POLICY_NAME, context);
+	}
+
+	@Benchmark
+	public List<EvaluationExpression> executeMultiAsync() {
+		return client.executeMultiAsync(POLICY_NAME, context).join();
+	}
+}
@@ -0,0 +1,243 @@
+package com.tadejd.dipllib.benchmarks;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.model.config.PartitionSettings;
+import ca.uhn.fhir.jpa.model.entity.StorageSettings;
+import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
+import ca.uhn.fhir.jpa.searchparam.extractor.SearchParamExtractorR4;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.SimpleBundleProvider;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import ca.uhn.fhir.rest.server.util.ISearchParamRegistry;
+import ca.uhn.fhir.rest.server.util.ResourceSearchParams;
+import care.better.abac.policy.execute.evaluation.*;
+import com.tadejd.dipllib.AbacInterceptor;
+import com.tadejd.dipllib.client.AbacRestClient;
+import com.tadejd.dipllib.config.AbacProperties;
+import com.tadejd.dipllib.rule.AbacRuleManager;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CareTeam;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * In-memory stand-ins for the HAPI FHIR JPA server that the benchmarks run the library against. Search parameter
+ * values are extracted by the real R4 extractor, while DAOs and the ABAC server are replaced by fixed answers.
+ *
+ * @author Tadej Delopst
+ */
+public final class BenchmarkFixtures {
+	public static final FhirContext FHIR_CONTEXT = FhirContext.forR4Cached();
+
+	public static final String PATIENT_POLICY = "BENCHMARK_PATIENT";
+	public static final String CARE_TEAM_POLICY = "BENCHMARK_PATIENT_CARE_TEAM";
+
+	private BenchmarkFixtures() {
+		// Private constructor to prevent instantiation
+	}
+
+	public static ISearchParamRegistry searchParamRegistry() {
+		Map<String, ResourceSearchParams> searchParams = new ConcurrentHashMap<>();
+		InvocationHandler handler = (proxy, method, args) -> {
+			if (method.getName().equals("getActiveSearchParams") && args != null && args[0] instanceof String resourceName) {
+				return searchParams.computeIfAbsent(resourceName, BenchmarkFixtures::readSearchParams);
+			} else if (method.getName().equals("getActiveSearchParam") && args != null && args.length >= 2) {
+				return searchParams.computeIfAbsent((String)args[0], BenchmarkFixtures::readSearchParams).get((String)args[1]);
+			} else if (method.isDefault()) {
+				return InvocationHandler.invokeDefault(proxy, method, args);
+			}
+			return defaultValue(method.getReturnType());
+		};
+		return (ISearchParamRegistry)Proxy.newProxyInstance(ISearchParamRegistry.class.getClassLoader(),
+															 new Class<?>[]{ISearchParamRegistry.class}, handler);
+	}
+
+	private static ResourceSearchParams readSearchParams(String resourceName) {
+		ResourceSearchParams searchParams = new ResourceSearchParams(resourceName);
+		RuntimeResourceDefinition definition = FHIR_CONTEXT.getResourceDefinition(resourceName);
+		for (RuntimeSearchParam searchParam : definition.getSearchParams()) {
+			searchParams.put(searchParam.getName(), searchParam);
+		}
+		return searchParams;
+	}
+
+	public static ISearchParamExtractor searchParamExtractor(ISearchParamRegistry searchParamRegistry) {
+		return new SearchParamExtractorR4(new StorageSettings(), new PartitionSettings(), FHIR_CONTEXT, searchParamRegistry);
+	}
+
+	/**
+	 * @return a DAO whose searches always return the given resources
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends IBaseResource> IFhirResourceDao<T> resourceDao(Class<T> resourceType, List<? extends IBaseResource> searchResults) {
+		InvocationHandler handler = (proxy, method, args) -> switch (method.getName()) {
+			case "getResourceType" -> resourceType;
+			case "search" -> new SimpleBundleProvider(new ArrayList<>(searchResults));
+			case "hashCode" -> System.identityHashCode(proxy);
+			case "equals" -> proxy == args[0];
+			case "toString" -> "BenchmarkDao[" + resourceType.getSimpleName() + "]";
+			default -> method.isDefault() ? InvocationHandler.invokeDefault(proxy, method, args) : defaultValue(method.getReturnType());
+		};
+		return (IFhirResourceDao<T>)Proxy.newProxyInstance(IFhirResourceDao.class.getClassLoader(),
+														   new Class<?>[]{IFhirResourceDao.class}, handler);
+	}
+
+	/**
+	 * @return a client that answers every context entry with the same decision, without any network traffic
+	 */
+	public static AbacRestClient fixedDecisionClient(EvaluationExpression decision) {
+		return new AbacRestClient() {
+			@Override
+			public EvaluationExpression execute(String policyName, Map<String, String> context) {
+				return decision;
+			}
+
+			@Override
+			public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+				return Collections.nCopies(context.size(), decision);
+			}
+		};
+	}
+
+	/**
+	 * Creates an interceptor with a mapping-only policy on the patient's gender and a policy that resolves the care
+	 * teams of the patient through a reference.
+	 */
+	public static AbacInterceptor interceptor(AbacRestClient client, List<Patient> patients, List<CareTeam> careTeams) {
+		return interceptor(client, patients, careTeams, PATIENT_POLICY, CARE_TEAM_POLICY);
+	}
+
+	/**
+	 * Creates an interceptor with only the named benchmark policies.
+	 */
+	public static AbacInterceptor interceptor(AbacRestClient client, List<Patient> patients, List<CareTeam> careTeams, String... policyNames) {
+		AbacProperties.PolicyProperties patientPolicy = policy(PATIENT_POLICY, mapping("gender", "Patient.gender", null));
+
+		AbacProperties.PolicyProperties.Reference careTeamReference = new AbacProperties.PolicyProperties.Reference();
+		careTeamReference.setTargetResource("CareTeam");
+		careTeamReference.setSearchParameter("patient");
+		AbacProperties.PolicyProperties careTeamPolicy = policy(CARE_TEAM_POLICY, mapping("careTeamName", "CareTeam.name", careTeamReference));
+
+		List<String> names = List.of(policyNames);
+		AbacProperties properties = new AbacProperties();
+		properties.setUrl("http://localhost");
+		properties.setPolicies(Stream.of(patientPolicy, careTeamPolicy).filter(policy -> names.contains(policy.getName())).toList());
+
+		ISearchParamRegistry searchParamRegistry = searchParamRegistry();
+		AbacInterceptor interceptor = new AbacInterceptor(properties,
+														  List.of(resourceDao(Patient.class, patients), resourceDao(CareTeam.class, careTeams)),
+														  new AbacRuleManager(searchParamRegistry),
+														  searchParamExtractor(searchParamRegistry),
+														  FHIR_CONTEXT,
+														  client);
+		interceptor.initializePolicies();
+		return interceptor;
+	}
+
+	private static AbacProperties.PolicyProperties policy(String name, AbacProperties.PolicyProperties.Mapping mapping) {
+		AbacProperties.PolicyProperties policy = new AbacProperties.PolicyProperties();
+		policy.setName(name);
+		policy.setType("search");
+		policy.setResourceType("Patient");
+		policy.setOperations("SEARCH_TYPE,READ");
+		policy.setMappings(List.of(mapping));
+		return policy;
+	}
+
+	private static AbacProperties.PolicyProperties.Mapping mapping(String contextAttribute, String expression,
+																	AbacProperties.PolicyProperties.Reference reference) {
+		AbacProperties.PolicyProperties.Mapping mapping = new AbacProperties.PolicyProperties.Mapping();
+		mapping.setContextAttribute(contextAttribute);
+		mapping.setExpression(expression);
+		mapping.setReference(reference);
+		return mapping;
+	}
+
+	public static List<Patient> patients(int count) {
+		List<Patient> patients = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/p-" + i + "/_history/1");
+			patient.setGender(i % 2 == 0 ? Enumerations.AdministrativeGender.FEMALE : Enumerations.AdministrativeGender.MALE);
+			patient.addName().setFamily("Family" + i).addGiven("Given" + i);
+			patients.add(patient);
+		}
+		return patients;
+	}
+
+	public static List<CareTeam> careTeams(List<Patient> patients) {
+		List<CareTeam> careTeams = new ArrayList<>(patients.size());
+		for (int i = 0; i < patients.size(); i++) {
+			Patient patient = patients.get(i);
+			CareTeam careTeam = new CareTeam();
+			careTeam.setId("CareTeam/ct-" + i + "/_history/1");
+			careTeam.setName(i % 3 == 0 ? "oncology" : "cardiology");
+			careTeam.setSubject(new Reference("Patient/" + patient.getIdElement().getIdPart()));
+			careTeams.add(careTeam);
+		}
+		return careTeams;
+	}
+
+	/**
+	 * Typical decision for response filtering: allowed when the gender of the entry is one of the permitted values.
+	 */
+	public static EvaluationExpression genderDecision() {
+		return and(new BooleanEvaluationExpression(true),
+				   new ValueSetEvaluationExpression("Patient.gender", Set.of("female", "http://hl7.org/fhir/administrative-gender|female")));
+	}
+
+	/**
+	 * @return a balanced tree of the given depth, alternating AND and OR nodes over ValueSet and ResultSet leaves
+	 */
+	public static EvaluationExpression decisionTree(int depth) {
+		if (depth == 0) {
+			return new ValueSetEvaluationExpression("Patient.gender", Set.of("female", "http://hl7.org/fhir/administrative-gender|female"));
+		} else if (depth == 1) {
+			return or(new ResultSetEvaluationExpression(Set.of("p-0", "p-2", "p-4")), decisionTree(0));
+		}
+		return depth % 2 == 0 ? and(decisionTree(depth - 1), decisionTree(depth - 2)) : or(decisionTree(depth - 1), decisionTree(depth - 2));
+	}
+
+	private static EvaluationExpression and(EvaluationExpression left, EvaluationExpression right) {
+		return new BooleanOperationEvaluationExpression(BooleanOperation.AND, left, right);
+	}
+
+	private static EvaluationExpression or(EvaluationExpression left, EvaluationExpression right) {
+		return new BooleanOperationEvaluationExpression(BooleanOperation.OR, left, right);
+	}
+
+	public static ServletRequestDetails searchRequest() {
+		// The server gives the authorization interceptor the FhirContext of the response
+		ServletRequestDetails requestDetails = new ServletRequestDetails();
+		requestDetails.setServer(new RestfulServer(FHIR_CONTEXT));
+		requestDetails.setResourceName("Patient");
+		requestDetails.setRestOperationType(RestOperationTypeEnum.SEARCH_TYPE);
+		return requestDetails;
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+}
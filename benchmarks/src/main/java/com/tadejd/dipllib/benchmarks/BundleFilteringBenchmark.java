@@ -0,0 +1,64 @@
+package com.tadejd.dipllib.benchmarks;
+
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import com.tadejd.dipllib.AbacInterceptor;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CareTeam;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures filtering a search result Bundle in {@link AbacInterceptor#hookOutgoingResponse} with both benchmark
+ * policies, the ABAC server answering instantly.
+ *
+ * @author Tadej Delopst
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BundleFilteringBenchmark {
+	@Param({"10", "100", "1000"})
+	public int entries;
+
+	private AbacInterceptor interceptor;
+	private List<Bundle.BundleEntryComponent> bundleEntries;
+
+	@Setup
+	public void setUp() {
+		List<Patient> patients = BenchmarkFixtures.patients(entries);
+		List<CareTeam> careTeams = BenchmarkFixtures.careTeams(patients);
+		interceptor = BenchmarkFixtures.interceptor(BenchmarkFixtures.fixedDecisionClient(BenchmarkFixtures.genderDecision()), patients, careTeams);
+
+		bundleEntries = new ArrayList<>(entries);
+		for (Patient patient : patients) {
+			bundleEntries.add(new Bundle.BundleEntryComponent().setResource(patient));
+		}
+	}
+
+	@Benchmark
+	public Bundle filterBundle() {
+		// Filtering removes entries in place, so every invocation gets its own Bundle over the same resources
+		Bundle bundle = new Bundle();
+		bundle.setType(Bundle.BundleType.SEARCHSET);
+		bundle.setEntry(new ArrayList<>(bundleEntries));
+		interceptor.hookOutgoingResponse(BenchmarkFixtures.searchRequest(), bundle, Pointcut.SERVER_OUTGOING_RESPONSE);
+		return bundle;
+	}
+}
@@ -0,0 +1,81 @@
+package com.tadejd.dipllib.benchmarks;
+
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import care.better.abac.policy.execute.evaluation.BooleanEvaluationExpression;
+import com.tadejd.dipllib.AbacInterceptor;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CareTeam;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures context extraction through {@link AbacInterceptor#hookOutgoingResponse}, with a plain FHIRPath mapping and
+ * with a mapping that first resolves a reference of every entry. The ABAC server allows everything instantly, so the
+ * difference between the two is the cost of the mappings.
+ *
+ * @author Tadej Delopst
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContextExtractionBenchmark {
+	// Every entry references its own care team, so references of several ids are resolved together
+	@Param({"10", "100"})
+	public int entries;
+
+	private AbacInterceptor withoutReferencesInterceptor;
+	private AbacInterceptor withReferencesInterceptor;
+	private List<Bundle.BundleEntryComponent> bundleEntries;
+
+	@Setup
+	public void setUp() {
+		List<Patient> patients = BenchmarkFixtures.patients(entries);
+		List<CareTeam> careTeams = BenchmarkFixtures.careTeams(patients);
+		BooleanEvaluationExpression allow = new BooleanEvaluationExpression(true);
+		withoutReferencesInterceptor = BenchmarkFixtures.interceptor(BenchmarkFixtures.fixedDecisionClient(allow), patients, careTeams,
+																	 BenchmarkFixtures.PATIENT_POLICY);
+		withReferencesInterceptor = BenchmarkFixtures.interceptor(BenchmarkFixtures.fixedDecisionClient(allow), patients, careTeams,
+																  BenchmarkFixtures.CARE_TEAM_POLICY);
+
+		bundleEntries = new ArrayList<>(entries);
+		for (Patient patient : patients) {
+			bundleEntries.add(new Bundle.BundleEntryComponent().setResource(patient));
+		}
+	}
+
+	@Benchmark
+	public Bundle withoutReferences() {
+		return filter(withoutReferencesInterceptor);
+	}
+
+	@Benchmark
+	public Bundle withReferences() {
+		return filter(withReferencesInterceptor);
+	}
+
+	private Bundle filter(AbacInterceptor interceptor) {
+		// A new request every time, so references are resolved instead of taken from the request scope
+		Bundle bundle = new Bundle();
+		bundle.setType(Bundle.BundleType.SEARCHSET);
+		bundle.setEntry(new ArrayList<>(bundleEntries));
+		interceptor.hookOutgoingResponse(BenchmarkFixtures.searchRequest(), bundle, Pointcut.SERVER_OUTGOING_RESPONSE);
+		return bundle;
+	}
+}
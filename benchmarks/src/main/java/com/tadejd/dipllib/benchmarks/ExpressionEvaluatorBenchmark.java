@@ -0,0 +1,69 @@
+package com.tadejd.dipllib.benchmarks;
+
+import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.server.util.ISearchParamRegistry;
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.tadejd.dipllib.evaluation.ExpressionContext;
+import com.tadejd.dipllib.evaluation.ExpressionEvaluator;
+import com.tadejd.dipllib.evaluation.FhirActiveSearchParametersSupplier;
+import com.tadejd.dipllib.rule.AbacRuleManager;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ExpressionEvaluator#evaluate} over balanced decision trees of increasing depth, against the
+ * entries of a search result.
+ *
+ * @author Tadej Delopst
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpressionEvaluatorBenchmark {
+	private static final String POLICY_NAME = "BENCHMARK_TREE";
+
+	@Param({"4", "8", "12"})
+	public int depth;
+
+	private EvaluationExpression decision;
+	private List<Patient> patients;
+	private FhirActiveSearchParametersSupplier activeSearchParams;
+	private ISearchParamExtractor extractor;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		ISearchParamRegistry searchParamRegistry = BenchmarkFixtures.searchParamRegistry();
+		extractor = BenchmarkFixtures.searchParamExtractor(searchParamRegistry);
+		activeSearchParams = new AbacRuleManager(searchParamRegistry).createActiveSearchParametersSupplier("Patient");
+
+		decision = BenchmarkFixtures.decisionTree(depth);
+		patients = BenchmarkFixtures.patients(100);
+	}
+
+	@Benchmark
+	public boolean evaluate() {
+		// A new context every time, so values extracted by one invocation are not reused by the next
+		ExpressionContext requestContext = new ExpressionContext(RestOperationTypeEnum.SEARCH_TYPE, () -> null, () -> null,
+																 activeSearchParams, extractor);
+		Patient patient = patients.get(next++ % patients.size());
+		return ExpressionEvaluator.evaluate(decision, requestContext.entryView().setEntryResource(patient), POLICY_NAME);
+	}
+}
@@ -1,15 +1,16 @@
 package com.tadejd.dipllib;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
 import ca.uhn.fhir.interceptor.api.Hook;
 import ca.uhn.fhir.interceptor.api.Interceptor;
 import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.model.search.ICachedSearchDetails;
 import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
 import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
-import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.interceptor.auth.AuthorizationInterceptor;
 import ca.uhn.fhir.rest.server.interceptor.auth.PolicyEnum;
@@ -17,24 +18,44 @@ import care.better.abac.policy.execute.evaluation.EvaluationExpression;
 import com.tadejd.dipllib.client.AbacRestClient;
 import com.tadejd.dipllib.config.AbacProperties;
 import com.tadejd.dipllib.evaluation.ExpressionContext;
+import com.tadejd.dipllib.evaluation.CompiledExpressionCache;
 import com.tadejd.dipllib.evaluation.ExpressionEvaluator;
+import com.tadejd.dipllib.evaluation.ExtractedValueCache;
+import com.tadejd.dipllib.evaluation.FhirPathEngineProvider;
 import com.tadejd.dipllib.evaluation.FhirReadResourceSupplier;
+import com.tadejd.dipllib.metrics.AbacMetrics;
 import com.tadejd.dipllib.rule.AbacRuleManager;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.fhirpath.ExpressionNode;
 import org.hl7.fhir.r4.fhirpath.FHIRPathEngine;
-import org.hl7.fhir.r4.hapi.ctx.HapiWorkerContext;
 import org.hl7.fhir.r4.model.Base;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Resource;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -46,15 +67,26 @@ import java.util.stream.Stream;
  */
 @Interceptor
 public class AbacInterceptor extends AuthorizationInterceptor implements CustomInterceptor {
+    private static final Set<RestOperationTypeEnum> WRITE_OPERATIONS =
+            EnumSet.of(RestOperationTypeEnum.CREATE, RestOperationTypeEnum.UPDATE, RestOperationTypeEnum.DELETE);
+
     private final List<Policy> policies = new ArrayList<>();
+    private PolicyIndex policyIndex = new PolicyIndex(List.of());
     private final AbacProperties abacProperties;
     private final Map<Class<? extends IBaseResource>, IFhirResourceDao<? extends IBaseResource>> resourceDaosByType;
     private final AbacRuleManager abacRuleManager;
     private final ISearchParamExtractor extractor;
-    private final FHIRPathEngine engine;
+    private final FhirPathEngineProvider engines;
+    private final ReferenceResolver referenceResolver;
+    private final ExtractedValueCache valueCache;
+    private final CompiledExpressionCache compiledExpressions;
     private final FhirContext fhirContext;
 
     private final AbacRestClient client;
+    private final AbacMetrics metrics;
+    private final PolicyStatistics statistics = new PolicyStatistics();
+    private final ExecutorService policyExecutor;
+    private final ForkJoinPool extractionPool;
 
     public AbacInterceptor(
             AbacProperties abacProperties,
@@ -63,6 +95,17 @@ public class AbacInterceptor extends AuthorizationInterceptor implements CustomI
             ISearchParamExtractor searchParamExtractor,
             FhirContext fhirContext,
             AbacRestClient client) {
+        this(abacProperties, resourceDaoList, abacRuleManager, searchParamExtractor, fhirContext, client, AbacMetrics.NOOP);
+    }
+
+    public AbacInterceptor(
+            AbacProperties abacProperties,
+            List<IFhirResourceDao<? extends IBaseResource>> resourceDaoList,
+            AbacRuleManager abacRuleManager,
+            ISearchParamExtractor searchParamExtractor,
+            FhirContext fhirContext,
+            AbacRestClient client,
+            AbacMetrics metrics) {
         super(PolicyEnum.ALLOW);
         this.abacProperties = abacProperties;
 
@@ -74,9 +117,33 @@ public class AbacInterceptor extends AuthorizationInterceptor implements CustomI
 
         this.abacRuleManager = abacRuleManager;
         this.extractor = searchParamExtractor;
-        this.engine = new FHIRPathEngine(new HapiWorkerContext(fhirContext, fhirContext.getValidationSupport()));
+        this.engines = new FhirPathEngineProvider(fhirContext);
+        this.referenceResolver = new ReferenceResolver(resourceDaosByType, fhirContext, abacRuleManager, searchParamExtractor,
+                                                       abacProperties.getReferenceCache().isEnabled() ?
+                                                               new ReferenceCache(abacProperties.getReferenceCache().getTtl(),
+                                                                                  abacProperties.getReferenceCache().getMaxSize()) : null);
+        this.valueCache = abacProperties.getValueCache().isEnabled() ?
+                new ExtractedValueCache(abacProperties.getValueCache().getTtl(), abacProperties.getValueCache().getMaxSize()) : null;
+        this.compiledExpressions = abacProperties.getEvaluation().getCompiledExpressionWeight() > 0 ?
+                new CompiledExpressionCache(abacProperties.getEvaluation().getCompiledExpressionWeight()) : null;
         this.fhirContext = fhirContext;
         this.client = client;
+        this.metrics = metrics;
+        this.policyExecutor = abacProperties.getEvaluation().isConcurrentPolicies() ?
+                createPolicyExecutor(abacProperties.getEvaluation().getPolicyThreads()) : null;
+        this.extractionPool = abacProperties.getEvaluation().getParallelExtractionThreshold() > 0 ?
+                new ForkJoinPool(abacProperties.getEvaluation().getExtractionParallelism()) : null;
+    }
+
+    private static ExecutorService createPolicyExecutor(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "abac-policy-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Tasks run with the submitting thread's authentication, which AbacRestClientImpl relays to the ABAC server
+        return new DelegatingSecurityContextExecutorService(executor);
     }
 
     @PostConstruct
@@ -96,18 +163,35 @@ public class AbacInterceptor extends AuthorizationInterceptor implements CustomI
                             if (mapping.getReference() != null) {
                                 reference = new Policy.Reference(mapping.getReference().getTargetResource(), mapping.getReference().getSearchParameter());
                             }
-                            return new Policy.Mapping(mapping.getContextAttribute(), mapping.getExpression(), reference);
+                            return new Policy.Mapping(mapping.getContextAttribute(), mapping.getExpression(),
+                                                      compileExpression(entry.getName(), mapping.getExpression()), reference);
                         })
                         .toList();
             }
 
+            if (entry.isSearchFilter() && mappings != null && !mappings.isEmpty()) {
+                throw new IllegalArgumentException("Policy '" + entry.getName() + "' uses search filtering and cannot define mappings, " +
+                                                           "since its decision must not depend on the returned resources");
+            }
+
             policies.add(new Policy(
                     entry.getName(),
                     entry.getResourceType(),
                     operations,
-                    mappings
+                    mappings,
+                    entry.isSearchFilter()
             ));
         }
+        policyIndex = new PolicyIndex(policies);
+    }
+
+    private ExpressionNode compileExpression(String policyName, String expression) {
+        try {
+            return engines.get().parse(expression);
+        } catch (FHIRException e) {
+            throw new IllegalArgumentException("Policy '" + policyName + "' contains invalid FHIRPath expression '" + expression + "': " +
+                                                       e.getMessage(), e);
+        }
     }
 
     public List<Policy> getPolicies() {
@@ -136,102 +220,462 @@ public class AbacInterceptor extends AuthorizationInterceptor implements CustomI
     }
 
     private void handleSingleResource(RequestDetails theRequest, Resource theResource) {
-        List<Policy> matchingPolicies = policies.stream()
-                .filter(policy -> policy.matches(theRequest.getResourceName(), theRequest.getRestOperationType()))
-                .toList();
-
-        if (!matchingPolicies.isEmpty()) {
-            matchingPolicies.forEach(policy -> {
-                String policyName = policy.policyName();
-                Map<String, Object> ctxEntry = evaluateResourceContextEntry(theResource, policy.mappings());
-                if (ctxEntry != null) {
-                    List<EvaluationExpression> abacResponse = client.executeMulti(policyName, List.of(ctxEntry));
-                    if (!ExpressionEvaluator.evaluate(abacResponse.get(0),
-                                                      (ExpressionContext)theRequest.getUserData().get("ABAC_EXPRESSION_CONTEXT"),
-                                                      policyName)) {
-                        throw new ResourceNotFoundException("Resource not found.");
-                    }
-                } else {
+        ExpressionContext entryContext = null;
+        // The first denying policy ends the evaluation, so the most selective and cheapest policies go first
+        List<Policy> policies = orderPolicies(Arrays.asList(policyIndex.matching(theRequest.getResourceName(), theRequest.getRestOperationType())));
+        for (int p = 0; p < policies.size(); p++) {
+            Policy policy = policies.get(p);
+            String policyName = policy.policyName();
+            // Only the first policy decides on a resource no other policy has allowed before
+            boolean unconditional = p == 0;
+            long start = System.nanoTime();
+            Map<String, Object> ctxEntry = extractContextEntries(policy, List.of(theResource), theRequest).get(0);
+            if (ctxEntry != null) {
+                List<EvaluationExpression> abacResponse = client.executeMulti(policyName, List.of(ctxEntry));
+                statistics.recordCost(policyName, 1, System.nanoTime() - start);
+                if (entryContext == null) {
+                    // The resource is already in memory, so the decision is evaluated against it instead of reading it again
+                    entryContext = getExpressionContext(theRequest).entryView().setEntryResource(theResource);
+                }
+                if (!compile(abacResponse.get(0), policyName).test(entryContext)) {
+                    recordDecisions(policyName, theRequest, 0, 1, unconditional);
                     throw new ResourceNotFoundException("Resource not found.");
                 }
-            });
+                recordDecisions(policyName, theRequest, 1, 0, unconditional);
+            } else {
+                statistics.recordCost(policyName, 1, System.nanoTime() - start);
+                recordDecisions(policyName, theRequest, 0, 1, unconditional);
+                throw new ResourceNotFoundException("Resource not found.");
+            }
         }
     }
 
+    @Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_CREATED)
+    public void hookResourcePrecommitCreated(IBaseResource theResource) {
+        referenceResolver.invalidate(fhirContext.getResourceType(theResource));
+    }
+
+    @Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_UPDATED)
+    public void hookResourcePrecommitUpdated(IBaseResource theOldResource, IBaseResource theNewResource) {
+        referenceResolver.invalidate(fhirContext.getResourceType(theNewResource));
+    }
+
+    @Hook(Pointcut.STORAGE_PRECOMMIT_RESOURCE_DELETED)
+    public void hookResourcePrecommitDeleted(IBaseResource theResource) {
+        referenceResolver.invalidate(fhirContext.getResourceType(theResource));
+    }
+
+    /**
+     * Searches narrowed for one user must not be answered with results HAPI stored for the same query of another user,
+     * nor the other way around, so searches of resource types with search filtering policies are never reused.
+     */
+    @Hook(Pointcut.STORAGE_PRECHECK_FOR_CACHED_SEARCH)
+    public boolean hookPrecheckForCachedSearch(RequestDetails theRequestDetails) {
+        return !hasSearchFilterPolicy(theRequestDetails);
+    }
+
+    @Hook(Pointcut.STORAGE_PRESEARCH_REGISTERED)
+    public void hookPreSearchRegistered(RequestDetails theRequestDetails, ICachedSearchDetails theSearchDetails, SearchParameterMap theParams) {
+        // Internal searches, such as reference resolution, run without request details or for another resource type
+        if (theRequestDetails == null || theRequestDetails.getResourceName() == null ||
+                !theRequestDetails.getResourceName().equals(theSearchDetails.getResourceType())) {
+            return;
+        }
+        if (hasSearchFilterPolicy(theRequestDetails)) {
+            // The stored results depend on the user, see hookPrecheckForCachedSearch
+            theSearchDetails.setCannotBeReused();
+        }
+
+        Map<String, RuntimeSearchParam> activeSearchParams = null;
+        for (Policy policy : policyIndex.matching(theRequestDetails.getResourceName(), theRequestDetails.getRestOperationType())) {
+            if (!policy.searchFilter()) {
+                continue;
+            }
+            if (activeSearchParams == null) {
+                activeSearchParams = abacRuleManager.getAllowedSearchParams(theRequestDetails.getResourceName());
+            }
+            // Search filtering policies have no mappings, so this empty context is the context of every entry of the response
+            List<EvaluationExpression> abacResponse = client.executeMulti(policy.policyName(), List.of(Map.of()));
+            if (SearchFilter.apply(abacResponse.get(0), theParams, activeSearchParams, theRequestDetails.getResourceName(), policy.policyName())) {
+                getSearchFilteredPolicies(theRequestDetails).add(policy.policyName());
+            }
+        }
+    }
+
+    private boolean hasSearchFilterPolicy(RequestDetails theRequestDetails) {
+        if (theRequestDetails == null || theRequestDetails.getResourceName() == null) {
+            return false;
+        }
+        for (Policy policy : policyIndex.matching(theRequestDetails.getResourceName(), theRequestDetails.getRestOperationType())) {
+            if (policy.searchFilter()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> getSearchFilteredPolicies(RequestDetails theRequest) {
+        return (Set<String>)theRequest.getUserData().computeIfAbsent("ABAC_SEARCH_FILTERED_POLICIES", key -> new HashSet<String>());
+    }
+
     @Override
     @Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
     public void hookOutgoingResponse(RequestDetails theRequestDetails, IBaseResource theResponseObject, Pointcut thePointcut) {
         super.hookOutgoingResponse(theRequestDetails, theResponseObject, thePointcut);
 
-        if (!EnumSet.of(RestOperationTypeEnum.CREATE, RestOperationTypeEnum.UPDATE, RestOperationTypeEnum.DELETE)
-                .contains(theRequestDetails.getRestOperationType())) {
-
-            policies.stream()
-                    .filter(policy -> policy.matches(theRequestDetails.getResourceName(), theRequestDetails.getRestOperationType()))
-                    .forEach(policy -> {
-                        Map<Resource, Map<String, Object>> resourceCtxMap = new HashMap<>();
-                        String policyName = policy.policyName();
-                        if (theResponseObject instanceof Bundle) {
-                            ((Bundle)theResponseObject).getEntry().forEach(entry -> {
-                                Map<String, Object> ctxEntry = evaluateResourceContextEntry(entry.getResource(), policy.mappings());
-                                if (ctxEntry != null) {
-                                    resourceCtxMap.put(entry.getResource(), ctxEntry);
-                                }
-                            });
-                        } else if (theResponseObject instanceof Resource) {
-                            Map<String, Object> ctxEntry = evaluateResourceContextEntry((Resource)theResponseObject, policy.mappings());
-                            if (ctxEntry != null) {
-                                resourceCtxMap.put((Resource)theResponseObject, ctxEntry);
-                            }
-                        }
-
-                        List<Map<String, Object>> ctx = resourceCtxMap.values().stream().toList();
-                        List<EvaluationExpression> abacResponse = client.executeMulti(policyName, ctx);
-                        initExpressionContext(theRequestDetails);
-
-                        if (theResponseObject instanceof Bundle) {
-                            ((Bundle)theResponseObject).setEntry(((Bundle)theResponseObject).getEntry().stream()
-                                                                         .filter(entry -> {
-                                                                             int resourceIndex = getResourceIndex(resourceCtxMap, entry.getResource());
-                                                                             return resourceIndex != -1 && ExpressionEvaluator.evaluate(abacResponse.get(
-                                                                                                                                                resourceIndex),
-                                                                                                                                        (ExpressionContext)theRequestDetails.getUserData()
-                                                                                                                                                .get("ABAC_EXPRESSION_CONTEXT"),
-                                                                                                                                        policyName); // Keep only entries with allow boolean
-                                                                         }).toList());
-                            ((Bundle)theResponseObject).setTotal(((Bundle)theResponseObject).getEntry().size());
-                        } else if (theResponseObject instanceof Resource) {
-                            if (!ExpressionEvaluator.evaluate(abacResponse.get(0),
-                                                              (ExpressionContext)theRequestDetails.getUserData()
-                                                                      .get("ABAC_EXPRESSION_CONTEXT"),
-                                                              policyName)) {
-                                throw new ResourceNotFoundException("Resource not found.");
-                            }
-                        }
-                    });
+        if (!WRITE_OPERATIONS.contains(theRequestDetails.getRestOperationType())) {
+
+            Policy[] matchingPolicies = policyIndex.matching(theRequestDetails.getResourceName(), theRequestDetails.getRestOperationType());
+            if (matchingPolicies.length == 0) {
+                return;
+            }
+
+            // Policies already applied to the search parameters only need filtering of the response if that failed
+            Set<String> searchFilteredPolicies = getSearchFilteredPolicies(theRequestDetails);
+            List<Policy> filterPolicies = new ArrayList<>(matchingPolicies.length);
+            for (Policy policy : matchingPolicies) {
+                if (!searchFilteredPolicies.contains(policy.policyName())) {
+                    filterPolicies.add(policy);
+                }
+            }
+            if (filterPolicies.isEmpty()) {
+                return;
+            }
+            filterPolicies = orderPolicies(filterPolicies);
+
+            long start = System.nanoTime();
+            // A single entry view is reused for every entry of the response
+            ExpressionContext entryContext = getExpressionContext(theRequestDetails).entryView();
+
+            if (theResponseObject instanceof Bundle bundle) {
+                int entries = bundle.getEntry().size();
+                filterBundle(bundle, filterPolicies, entryContext, theRequestDetails);
+                metrics.recordResponseFiltering(theRequestDetails.getResourceName(), theRequestDetails.getRestOperationType(),
+                                                entries, entries - bundle.getEntry().size(), System.nanoTime() - start);
+            } else if (theResponseObject instanceof Resource) {
+                BitSet allowed = filterResources(List.of((Resource)theResponseObject), filterPolicies, entryContext, theRequestDetails);
+                metrics.recordResponseFiltering(theRequestDetails.getResourceName(), theRequestDetails.getRestOperationType(),
+                                                1, allowed.get(0) ? 0 : 1, System.nanoTime() - start);
+                if (!allowed.get(0)) {
+                    throw new ResourceNotFoundException("Resource not found.");
+                }
+            }
+        }
+    }
+
+    private void filterBundle(Bundle bundle, List<Policy> filterPolicies, ExpressionContext entryContext, RequestDetails theRequestDetails) {
+        List<Bundle.BundleEntryComponent> entries = bundle.getEntry();
+        List<Resource> resources = new ArrayList<>(entries.size());
+        for (Bundle.BundleEntryComponent entry : entries) {
+            resources.add(entry.getResource());
+        }
+        BitSet allowed = filterResources(resources, filterPolicies, entryContext, theRequestDetails);
+
+        // Keep only entries with allow boolean, compacting the entry list in place
+        int kept = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            if (allowed.get(i)) {
+                entries.set(kept++, entries.get(i));
+            }
+        }
+        entries.subList(kept, entries.size()).clear();
+        bundle.setTotal(kept);
+    }
+
+    /**
+     * Evaluates the policies for the resources, in fixed-size chunks if {@code chunk-size} is set. Context for the
+     * next chunk is extracted while the decisions for the previous one are in flight, so at most two chunks of context
+     * are held at once. References are still resolved for all resources together.
+     *
+     * @return the positions of the resources that every policy allows
+     */
+    private BitSet filterResources(List<Resource> resources, List<Policy> filterPolicies, ExpressionContext entryContext,
+                                   RequestDetails theRequestDetails) {
+        int chunkSize = abacProperties.getEvaluation().getChunkSize() > 0 ? abacProperties.getEvaluation().getChunkSize() : Math.max(1, resources.size());
+        if (chunkSize < resources.size()) {
+            prefetchReferences(resources, filterPolicies, theRequestDetails);
+        }
+
+        // An entry is allowed only if every matching policy allows it
+        BitSet allowed = new BitSet(resources.size());
+        allowed.set(0, resources.size());
+        // Some evaluations let every policy decide on all entries, which keeps the deny rates used for ordering unbiased
+        boolean sampled = abacProperties.getEvaluation().isCostBasedOrdering() && filterPolicies.size() > 1 && statistics.sample(filterPolicies);
+
+        Chunk inFlight = null;
+        Chunk dispatched = null;
+        try {
+            for (int offset = 0; offset < resources.size(); offset += chunkSize) {
+                dispatched = dispatchChunk(resources.subList(offset, Math.min(offset + chunkSize, resources.size())), offset, filterPolicies,
+                                           sampled, theRequestDetails);
+                if (inFlight != null) {
+                    applyChunk(inFlight, allowed, entryContext, theRequestDetails);
+                }
+                inFlight = dispatched;
+                dispatched = null;
+            }
+            if (inFlight != null) {
+                applyChunk(inFlight, allowed, entryContext, theRequestDetails);
+            }
+        } catch (RuntimeException | Error e) {
+            // Decisions still in flight are no longer needed once the response cannot be filtered
+            cancel(inFlight);
+            cancel(dispatched);
+            throw e;
+        }
+        return allowed;
+    }
+
+    /**
+     * Resolves the references of all resources with one search per reference, so the chunks find them in the request scope.
+     */
+    private void prefetchReferences(List<Resource> resources, List<Policy> filterPolicies, RequestDetails theRequestDetails) {
+        for (Policy policy : filterPolicies) {
+            long start = System.nanoTime();
+            if (!referenceResolver.resolve(policy.mappings(), resources, getResolvedReferences(theRequestDetails)).isEmpty()) {
+                metrics.recordReferenceResolution(policy.policyName(), policy.resourceType(), System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static void cancel(Chunk chunk) {
+        if (chunk != null) {
+            chunk.responses().forEach(response -> response.cancel(true));
+        }
+    }
+
+    /**
+     * Sends the chunk to the ABAC server. With deny-fast evaluation only the first policy is sent right away and the
+     * others are evaluated in {@link #applyChunk}, each for the entries that the policies before it allowed. Sampled
+     * chunks are sent to every policy with all entries.
+     */
+    private Chunk dispatchChunk(List<Resource> resources, int offset, List<Policy> filterPolicies, boolean sampled,
+                                RequestDetails theRequestDetails) {
+        boolean denyFast = abacProperties.getEvaluation().isDenyFast() && policyExecutor == null && !sampled;
+        List<Policy> dispatched = denyFast ? filterPolicies.subList(0, 1) : filterPolicies;
+
+        int[] entries = new int[resources.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = offset + i;
+        }
+        List<PolicyBatch> batches = new ArrayList<>(dispatched.size());
+        List<CompletableFuture<List<EvaluationExpression>>> responses = new ArrayList<>(dispatched.size());
+        for (Policy policy : dispatched) {
+            PolicyBatch batch = createPolicyBatch(policy, resources, entries, theRequestDetails);
+            batches.add(batch);
+            responses.add(executePolicyBatch(batch));
         }
+        return new Chunk(resources, entries, batches, responses,
+                         denyFast ? filterPolicies.subList(1, filterPolicies.size()) : List.of(), sampled);
     }
 
-    private int getResourceIndex(Map<Resource, Map<String, Object>> map, Resource target) {
-        int index = 0;
-        for (Resource key : map.keySet()) {
-            if (key.equals(target)) {
-                return index;
+    private void applyChunk(Chunk chunk, BitSet allowed, ExpressionContext entryContext, RequestDetails theRequestDetails) {
+        for (int p = 0; p < chunk.batches().size(); p++) {
+            applyBatch(chunk.batches().get(p), awaitResponse(chunk.responses().get(p)), allowed, entryContext, theRequestDetails,
+                       p == 0 || chunk.sampled());
+        }
+
+        for (Policy policy : chunk.pending()) {
+            // Entries denied by an earlier policy are not sent to the later ones
+            List<Resource> resources = new ArrayList<>(chunk.resources().size());
+            int[] entries = new int[chunk.entries().length];
+            for (int i = 0; i < chunk.entries().length; i++) {
+                if (allowed.get(chunk.entries()[i])) {
+                    entries[resources.size()] = chunk.entries()[i];
+                    resources.add(chunk.resources().get(i));
+                }
+            }
+            if (resources.isEmpty()) {
+                return;
             }
-            index++;
+            PolicyBatch batch = createPolicyBatch(policy, resources, Arrays.copyOf(entries, resources.size()), theRequestDetails);
+            applyBatch(batch, awaitResponse(executePolicyBatch(batch)), allowed, entryContext, theRequestDetails, false);
         }
-        return -1;
     }
 
-    private Map<String, Object> evaluateResourceContextEntry(Resource resource, List<Policy.Mapping> mappings) {
+    /**
+     * @param unconditional whether the batch holds all entries of the chunk, so that its decisions on every entry,
+     *                      including those an earlier policy denied, are recorded for the policy order
+     */
+    private void applyBatch(PolicyBatch batch, List<EvaluationExpression> abacResponse, BitSet allowed, ExpressionContext entryContext,
+                            RequestDetails theRequestDetails, boolean unconditional) {
+        // Each distinct decision is compiled once and shared by all entries it was fanned out to
+        List<Predicate<ExpressionContext>> decisions = new ArrayList<>(abacResponse.size());
+        for (EvaluationExpression expression : abacResponse) {
+            decisions.add(compile(expression, batch.policy().policyName()));
+        }
+        int[] decisionIndex = batch.decisionIndex();
+        // Entries already denied by an earlier policy are not evaluated, and not counted, again, unless sampled
+        int allowedCount = 0;
+        int deniedCount = 0;
+        int sampledAllowed = 0;
+        int sampledDenied = 0;
+        for (int i = 0; i < decisionIndex.length; i++) {
+            int entry = batch.entries()[i];
+            boolean stillAllowed = allowed.get(entry);
+            if (!stillAllowed && !unconditional) {
+                continue;
+            }
+            boolean entryAllowed = decisionIndex[i] != -1 &&
+                    decisions.get(decisionIndex[i]).test(entryContext.setEntryResource(batch.resources().get(i)));
+            if (entryAllowed) {
+                sampledAllowed++;
+            } else {
+                sampledDenied++;
+            }
+            if (!stillAllowed) {
+                continue;
+            }
+            if (!entryAllowed) {
+                allowed.clear(entry);
+                deniedCount++;
+            } else {
+                allowedCount++;
+            }
+        }
+        recordDecisions(batch.policy().policyName(), theRequestDetails, allowedCount, deniedCount, false);
+        if (unconditional) {
+            statistics.recordDecisions(batch.policy().policyName(), sampledAllowed, sampledDenied);
+        }
+    }
+
+    private Predicate<ExpressionContext> compile(EvaluationExpression expression, String policyName) {
+        return compiledExpressions != null ? compiledExpressions.compile(expression, policyName) : ExpressionEvaluator.compile(expression, policyName);
+    }
+
+    private List<Policy> orderPolicies(List<Policy> policies) {
+        return abacProperties.getEvaluation().isCostBasedOrdering() ? statistics.order(policies) : policies;
+    }
+
+    /**
+     * @param unconditional whether no other policy filtered the entries first, so the decisions count for the policy order
+     */
+    private void recordDecisions(String policyName, RequestDetails theRequestDetails, int allowedCount, int deniedCount,
+                                 boolean unconditional) {
+        if (unconditional) {
+            statistics.recordDecisions(policyName, allowedCount, deniedCount);
+        }
+        metrics.recordDecisions(policyName, theRequestDetails.getResourceName(), theRequestDetails.getRestOperationType(),
+                                allowedCount, deniedCount);
+    }
+
+    /**
+     * @param entries position of every resource in the response
+     */
+    private PolicyBatch createPolicyBatch(Policy policy, List<Resource> resources, int[] entries, RequestDetails theRequestDetails) {
+        // decisionIndex[i] is the position of the i-th resource's context in ctx, or -1 if it has none.
+        // Identical contexts are sent only once and share the decision.
+        long start = System.nanoTime();
+        List<Map<String, Object>> ctxEntries = extractContextEntries(policy, resources, theRequestDetails);
+        int[] decisionIndex = new int[resources.size()];
+        List<Map<String, Object>> ctx = new ArrayList<>();
+        Map<Map<String, Object>, Integer> distinctCtx = new HashMap<>();
+        for (int i = 0; i < decisionIndex.length; i++) {
+            Map<String, Object> ctxEntry = ctxEntries.get(i);
+            if (ctxEntry == null) {
+                decisionIndex[i] = -1;
+            } else {
+                decisionIndex[i] = distinctCtx.computeIfAbsent(ctxEntry, entry -> {
+                    ctx.add(entry);
+                    return ctx.size() - 1;
+                });
+            }
+        }
+        return new PolicyBatch(policy, resources, entries, decisionIndex, ctx, start);
+    }
+
+    private List<Map<String, Object>> extractContextEntries(Policy policy, List<Resource> resources, RequestDetails theRequestDetails) {
+        // References are resolved for all resources up front, which keeps the extraction below free of DAO calls
+        long start = System.nanoTime();
+        Map<Policy.Reference, Map<String, List<IBaseResource>>> resolvedReferences = referenceResolver.resolve(policy.mappings(), resources,
+                                                                                                               getResolvedReferences(theRequestDetails));
+        if (!resolvedReferences.isEmpty()) {
+            long resolved = System.nanoTime();
+            metrics.recordReferenceResolution(policy.policyName(), policy.resourceType(), resolved - start);
+            start = resolved;
+        }
+
+        List<Map<String, Object>> ctxEntries = new ArrayList<>(Collections.nCopies(resources.size(), null));
+        if (extractionPool == null || resources.size() < abacProperties.getEvaluation().getParallelExtractionThreshold()) {
+            for (int i = 0; i < resources.size(); i++) {
+                ctxEntries.set(i, evaluateResourceContextEntry(resources.get(i), policy.mappings(), resolvedReferences));
+            }
+        } else {
+            extractionPool.submit(() -> IntStream.range(0, resources.size())
+                            .parallel()
+                            .forEach(i -> ctxEntries.set(i, evaluateResourceContextEntry(resources.get(i), policy.mappings(), resolvedReferences))))
+                    .join();
+        }
+        metrics.recordContextExtraction(policy.policyName(), policy.resourceType(), resources.size(), System.nanoTime() - start);
+        return ctxEntries;
+    }
+
+    private CompletableFuture<List<EvaluationExpression>> executePolicyBatch(PolicyBatch batch) {
+        CompletableFuture<List<EvaluationExpression>> response;
+        if (batch.ctx().isEmpty()) {
+            response = CompletableFuture.completedFuture(List.of());
+        } else if (policyExecutor != null) {
+            CompletableFuture<List<EvaluationExpression>> result = new CompletableFuture<>();
+            Future<?> task = policyExecutor.submit(() -> {
+                try {
+                    result.complete(client.executeMulti(batch.policy().policyName(), batch.ctx()));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            // Cancelling the response interrupts the blocking call
+            result.whenComplete((decisions, error) -> {
+                if (result.isCancelled()) {
+                    task.cancel(true);
+                }
+            });
+            response = result;
+        } else {
+            response = client.executeMultiAsync(batch.policy().policyName(), batch.ctx());
+        }
+        // Extraction and the ABAC call together are the cost of evaluating the policy for these entries
+        response.whenComplete((decisions, error) ->
+                statistics.recordCost(batch.policy().policyName(), batch.resources().size(), System.nanoTime() - batch.startedAt()));
+        return response;
+    }
+
+    private static List<EvaluationExpression> awaitResponse(CompletableFuture<List<EvaluationExpression>> response) {
+        try {
+            return response.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("ABAC policy evaluation failed", e.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (policyExecutor != null) {
+            policyExecutor.shutdown();
+        }
+        if (extractionPool != null) {
+            extractionPool.shutdown();
+        }
+    }
+
+    private Map<String, Object> evaluateResourceContextEntry(Resource resource, List<Policy.Mapping> mappings,
+                                                             Map<Policy.Reference, Map<String, List<IBaseResource>>> resolvedReferences) {
         boolean valid = true;
         Map<String, Object> ctxEntry = new HashMap<>();
+        if (mappings == null) {
+            return ctxEntry;
+        }
         for (Policy.Mapping mapping : mappings) {
-            List<Base> e = mapping.reference() == null ? engine.evaluate(resource, mapping.expression()) :
-                    resolveReference(resource, mapping)
+            FHIRPathEngine engine = engines.get();
+            List<Base> e = mapping.reference() == null ? engine.evaluate(resource, mapping.compiledExpression()) :
+                    resolvedReferences.get(mapping.reference())
+                            .getOrDefault(ReferenceResolver.sourceId(resource), List.of())
                             .stream()
                             .flatMap(res -> {
-                                List<Base> eval = engine.evaluate((Resource)res, mapping.expression());
+                                List<Base> eval = engine.evaluate((Resource)res, mapping.compiledExpression());
                                 return eval.isEmpty() ? Stream.empty() : eval.stream();
                             })
                             .toList();
@@ -250,27 +694,31 @@ public class AbacInterceptor extends AuthorizationInterceptor implements CustomI
         return valid ? ctxEntry : null;
     }
 
-    private List<IBaseResource> resolveReference(Resource resource, Policy.Mapping mapping) {
-        String referenced = resource.getId();
-
-        IFhirResourceDao<? extends IBaseResource> resourceDao = resourceDaosByType.get(fhirContext.getResourceDefinition(mapping.reference().targetResource())
-                                                                                               .getImplementingClass());
-
-        SearchParameterMap params = new SearchParameterMap();
-        params.add(mapping.reference().searchParameter(), new ReferenceParam(referenced));
+    @SuppressWarnings("unchecked")
+    private Map<ReferenceCache.ReferenceKey, List<IBaseResource>> getResolvedReferences(RequestDetails theRequest) {
+        return (Map<ReferenceCache.ReferenceKey, List<IBaseResource>>)theRequest.getUserData()
+                .computeIfAbsent("ABAC_RESOLVED_REFERENCES", key -> new HashMap<ReferenceCache.ReferenceKey, List<IBaseResource>>());
+    }
 
-        return resourceDao.search(params).getAllResources();
+    private ExpressionContext getExpressionContext(RequestDetails theRequest) {
+        ExpressionContext expressionContext = (ExpressionContext)theRequest.getUserData().get("ABAC_EXPRESSION_CONTEXT");
+        if (expressionContext == null) {
+            expressionContext = initExpressionContext(theRequest);
+        }
+        return expressionContext;
     }
 
-    private void initExpressionContext(RequestDetails theRequest) {
+    private ExpressionContext initExpressionContext(RequestDetails theRequest) {
         ExpressionContext expressionContext = new ExpressionContext(
                 theRequest.getRestOperationType(),
                 theRequest::getResource,
                 createResourceSupplier(theRequest),
                 abacRuleManager.createActiveSearchParametersSupplier(theRequest.getResourceName()),
-                extractor
+                extractor,
+                valueCache
         );
         theRequest.getUserData().put("ABAC_EXPRESSION_CONTEXT", expressionContext);
+        return expressionContext;
     }
 
     private FhirReadResourceSupplier createResourceSupplier(RequestDetails details) {
@@ -289,4 +737,19 @@ public class AbacInterceptor extends AuthorizationInterceptor implements CustomI
         return new FhirReadResourceSupplier(resourceDao, details.getResourceName(),
                                             details.getId() != null ? details.getId().getIdPart() : null);
     }
+
+    /**
+     * Context of one policy for a set of response entries; {@code entries[i]} is the position of {@code resources[i]}
+     * in the response.
+     */
+    private record PolicyBatch(Policy policy, List<Resource> resources, int[] entries, int[] decisionIndex,
+                               List<Map<String, Object>> ctx, long startedAt) {
+    }
+
+    /**
+     * @param pending policies still to be evaluated once the dispatched batches are applied
+     */
+    private record Chunk(List<Resource> resources, int[] entries, List<PolicyBatch> batches,
+                         List<CompletableFuture<List<EvaluationExpression>>> responses, List<Policy> pending, boolean sampled) {
+    }
 }
@@ -1,6 +1,7 @@
 package com.tadejd.dipllib;
 
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import org.hl7.fhir.r4.fhirpath.ExpressionNode;
 
 import java.util.List;
 
@@ -11,10 +12,11 @@ public record Policy(
 	String policyName,
 	String resourceType,
 	List<RestOperationTypeEnum> operationType,
-	List<Mapping> mappings) {
+	List<Mapping> mappings,
+	boolean searchFilter) {
 
 	public boolean matches(String resourceType, RestOperationTypeEnum operationType) {
-		return this.resourceType.equals(resourceType) && this.operationType.contains(operationType);
+		return this.resourceType != null && this.resourceType.equals(resourceType) && this.operationType.contains(operationType);
 	}
 
 	@Override
@@ -36,10 +38,18 @@ public record Policy(
 		return mappings;
 	}
 
+	/**
+	 * Whether the decision is added to the search parameters before a search runs, instead of filtering the results.
+	 */
+	@Override
+	public boolean searchFilter() {
+		return searchFilter;
+	}
+
 
 	public record Reference(String targetResource, String searchParameter) {
 	}
-	// Nested Mapping class
-	public record Mapping(String contextAttribute, String expression, Reference reference) {
+	// Nested Mapping class, compiledExpression is the parsed form of expression
+	public record Mapping(String contextAttribute, String expression, ExpressionNode compiledExpression, Reference reference) {
 	}
 }
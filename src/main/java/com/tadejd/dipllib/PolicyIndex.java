@@ -0,0 +1,57 @@
+package com.tadejd.dipllib;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable lookup of policies by resource type and operation, built once from the configured policies with
+ * {@link Policy#matches}. Resource types are compared exactly, so a policy applies only to the type it names.
+ * Returned arrays are shared between callers and must not be modified.
+ *
+ * @author Tadej Delopst
+ */
+class PolicyIndex {
+	private static final Policy[] NO_POLICIES = new Policy[0];
+
+	private final Map<String, EnumMap<RestOperationTypeEnum, Policy[]>> policiesByResourceType = new HashMap<>();
+
+	PolicyIndex(List<Policy> policies) {
+		// Built from Policy.matches, so a lookup always returns exactly the policies that match
+		Set<String> resourceTypes = new LinkedHashSet<>();
+		policies.forEach(policy -> resourceTypes.add(policy.resourceType()));
+		for (String resourceType : resourceTypes) {
+			EnumMap<RestOperationTypeEnum, Policy[]> index = new EnumMap<>(RestOperationTypeEnum.class);
+			for (RestOperationTypeEnum operationType : RestOperationTypeEnum.values()) {
+				Policy[] matching = policies.stream()
+					.filter(policy -> policy.matches(resourceType, operationType))
+					.distinct()
+					.toArray(Policy[]::new);
+				if (matching.length > 0) {
+					index.put(operationType, matching);
+				}
+			}
+			policiesByResourceType.put(resourceType, index);
+		}
+	}
+
+	/**
+	 * @return policies matching the resource type and operation in configuration order, never {@code null}
+	 */
+	Policy[] matching(String resourceType, RestOperationTypeEnum operationType) {
+		if (resourceType == null || operationType == null) {
+			return NO_POLICIES;
+		}
+		EnumMap<RestOperationTypeEnum, Policy[]> byOperation = policiesByResourceType.get(resourceType);
+		if (byOperation == null) {
+			return NO_POLICIES;
+		}
+		Policy[] matching = byOperation.get(operationType);
+		return matching != null ? matching : NO_POLICIES;
+	}
+}
@@ -0,0 +1,131 @@
+package com.tadejd.dipllib;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Observed cost and deny rate of every policy, used to evaluate the cheapest and most selective policies first.
+ * Since an entry must be allowed by all policies, ordering them by cost per entry divided by deny rate minimizes the
+ * expected work without changing any decision. Older observations are halved regularly, so the order follows changes
+ * in policies and data.
+ * <p>
+ * Deny rates are only recorded from decisions on entries that no other policy filtered first, as a policy evaluated
+ * after another one only sees the entries that one allowed. The first policy of every evaluation provides such
+ * decisions, and {@link #sample} selects evaluations in which every policy decides on all entries.
+ *
+ * @author Tadej Delopst
+ */
+class PolicyStatistics {
+	// Policies are reordered only once each of them has been evaluated for this many entries
+	private static final double MIN_SAMPLES = 100;
+	private static final double DECAY_THRESHOLD = 100_000;
+	// Policies that never deny still get a finite score, ordered by cost
+	private static final double MIN_DENY_RATE = 0.001;
+	// Every evaluation with this index samples all policies, besides those sampling policies with too few observations
+	private static final int SAMPLE_INTERVAL = 20;
+
+	private final Map<String, Stats> statistics = new ConcurrentHashMap<>();
+	private final AtomicLong evaluations = new AtomicLong();
+
+	void recordCost(String policyName, int entries, long durationNanos) {
+		if (entries > 0) {
+			stats(policyName).recordCost(entries, durationNanos);
+		}
+	}
+
+	/**
+	 * Records decisions on entries that no other policy filtered before this one.
+	 */
+	void recordDecisions(String policyName, int allowed, int denied) {
+		if (allowed + denied > 0) {
+			stats(policyName).recordDecisions(allowed, denied);
+		}
+	}
+
+	/**
+	 * @return whether every policy should decide on all entries of this evaluation, to record its deny rate
+	 */
+	boolean sample(List<Policy> policies) {
+		if (evaluations.incrementAndGet() % SAMPLE_INTERVAL == 0) {
+			return true;
+		}
+		for (Policy policy : policies) {
+			Stats stats = statistics.get(policy.policyName());
+			if (stats == null || stats.needsSamples()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the policies in evaluation order, or the given list itself while there are too few observations
+	 */
+	List<Policy> order(List<Policy> policies) {
+		if (policies.size() < 2) {
+			return policies;
+		}
+		Map<Policy, Double> scores = new IdentityHashMap<>();
+		for (Policy policy : policies) {
+			Stats stats = statistics.get(policy.policyName());
+			double score = stats != null ? stats.score() : Double.NaN;
+			if (Double.isNaN(score)) {
+				return policies;
+			}
+			scores.put(policy, score);
+		}
+		List<Policy> ordered = new ArrayList<>(policies);
+		// The sort is stable, so policies with equal scores keep their configuration order
+		ordered.sort(Comparator.comparingDouble(scores::get));
+		return ordered;
+	}
+
+	private Stats stats(String policyName) {
+		return statistics.computeIfAbsent(policyName, name -> new Stats());
+	}
+
+	private static final class Stats {
+		private double evaluated;
+		private double denied;
+		private double costEntries;
+		private double costNanos;
+
+		private synchronized void recordCost(int entries, long durationNanos) {
+			costEntries += entries;
+			costNanos += durationNanos;
+			if (costEntries > DECAY_THRESHOLD) {
+				costEntries /= 2;
+				costNanos /= 2;
+			}
+		}
+
+		private synchronized void recordDecisions(int allowed, int denied) {
+			this.evaluated += allowed + denied;
+			this.denied += denied;
+			if (evaluated > DECAY_THRESHOLD) {
+				evaluated /= 2;
+				this.denied /= 2;
+			}
+		}
+
+		private synchronized boolean needsSamples() {
+			return evaluated < MIN_SAMPLES;
+		}
+
+		/**
+		 * @return expected cost of removing one entry, or {@code NaN} without enough observations
+		 */
+		private synchronized double score() {
+			if (evaluated < MIN_SAMPLES || costEntries < MIN_SAMPLES) {
+				return Double.NaN;
+			}
+			double costPerEntry = Math.max(1, costNanos / costEntries);
+			return costPerEntry / Math.max(MIN_DENY_RATE, denied / evaluated);
+		}
+	}
+}
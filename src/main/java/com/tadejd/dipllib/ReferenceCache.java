@@ -0,0 +1,76 @@
+package com.tadejd.dipllib;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared cache of resolved references, bounded by size and TTL. Every target resource type has a generation counter
+ * that is bumped whenever a resource of that type is written, which makes all entries loaded before the write stale.
+ * Only writes seen by the interceptor bump it; for writes on other nodes or straight to the DAOs the TTL is the bound.
+ *
+ * @author Tadej Delopst
+ */
+class ReferenceCache {
+	private final long ttlNanos;
+	private final int maxSize;
+	private final LinkedHashMap<ReferenceKey, Entry> entries;
+	private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+	ReferenceCache(Duration ttl, int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("ABAC reference cache size must be positive, was " + maxSize);
+		}
+		this.ttlNanos = ttl.toNanos();
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ReferenceKey, Entry> eldest) {
+				return size() > ReferenceCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Must be read before the targets are searched, so a write that happens during the search invalidates the result.
+	 */
+	long generation(String targetResource) {
+		return generations.computeIfAbsent(targetResource, type -> new AtomicLong()).get();
+	}
+
+	synchronized List<IBaseResource> get(ReferenceKey key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (System.nanoTime() - entry.expiresAt() >= 0 || entry.generation() != generation(key.targetResource())) {
+			entries.remove(key);
+			return null;
+		}
+		return entry.targets();
+	}
+
+	synchronized void put(ReferenceKey key, List<IBaseResource> targets, long generation) {
+		if (generation == generation(key.targetResource())) {
+			entries.put(key, new Entry(List.copyOf(targets), generation, System.nanoTime() + ttlNanos));
+		}
+	}
+
+	void invalidate(String targetResource) {
+		generations.computeIfAbsent(targetResource, type -> new AtomicLong()).incrementAndGet();
+	}
+
+	/**
+	 * Identifies the targets of a {@link Policy.Reference} that point to one source resource.
+	 */
+	record ReferenceKey(String targetResource, String searchParameter, String sourceId) {
+	}
+
+	private record Entry(List<IBaseResource> targets, long generation, long expiresAt) {
+	}
+}
@@ -0,0 +1,180 @@
+package com.tadejd.dipllib;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
+import ca.uhn.fhir.rest.param.ReferenceOrListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import com.tadejd.dipllib.rule.AbacRuleManager;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Resource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves {@link Policy.Reference} mappings for a whole page of resources at once. All referenced ids of one
+ * reference are looked up with a single OR-list search, and the results are grouped back by the resource they point to.
+ * Resolved references are reused for the rest of the request and, when a {@link ReferenceCache} is configured, across requests.
+ *
+ * @author Tadej Delopst
+ */
+class ReferenceResolver {
+	private final Map<Class<? extends IBaseResource>, IFhirResourceDao<? extends IBaseResource>> resourceDaosByType;
+	private final FhirContext fhirContext;
+	private final AbacRuleManager abacRuleManager;
+	private final ISearchParamExtractor extractor;
+	private final ReferenceCache sharedCache;
+
+	/**
+	 * @param sharedCache cache shared across requests, or {@code null} to resolve references only once per request
+	 */
+	ReferenceResolver(Map<Class<? extends IBaseResource>, IFhirResourceDao<? extends IBaseResource>> resourceDaosByType,
+					  FhirContext fhirContext,
+					  AbacRuleManager abacRuleManager,
+					  ISearchParamExtractor extractor,
+					  ReferenceCache sharedCache) {
+		this.resourceDaosByType = resourceDaosByType;
+		this.fhirContext = fhirContext;
+		this.abacRuleManager = abacRuleManager;
+		this.extractor = extractor;
+		this.sharedCache = sharedCache;
+	}
+
+	/**
+	 * @param requestScope references already resolved during the current request, updated with the newly resolved ones
+	 * @return for every reference used by the mappings, the resolved target resources keyed by source resource id
+	 */
+	Map<Policy.Reference, Map<String, List<IBaseResource>>> resolve(List<Policy.Mapping> mappings, List<Resource> resources,
+																	 Map<ReferenceCache.ReferenceKey, List<IBaseResource>> requestScope) {
+		Map<Policy.Reference, Map<String, List<IBaseResource>>> resolved = new HashMap<>();
+		if (mappings == null) {
+			return resolved;
+		}
+		for (Policy.Mapping mapping : mappings) {
+			if (mapping.reference() != null && !resolved.containsKey(mapping.reference())) {
+				resolved.put(mapping.reference(), resolve(mapping.reference(), resources, requestScope));
+			}
+		}
+		return resolved;
+	}
+
+	/**
+	 * Invalidates the shared cache when a resource of the type is written, and again once the transaction of the write
+	 * completes. A search running between the two may still see the data from before the commit and cache it under the
+	 * generation of the first invalidation.
+	 */
+	void invalidate(String targetResource) {
+		if (sharedCache == null) {
+			return;
+		}
+		sharedCache.invalidate(targetResource);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					sharedCache.invalidate(targetResource);
+				}
+			});
+		}
+	}
+
+	private Map<String, List<IBaseResource>> resolve(Policy.Reference reference, List<Resource> resources,
+													 Map<ReferenceCache.ReferenceKey, List<IBaseResource>> requestScope) {
+		Map<String, List<IBaseResource>> targetsBySource = new HashMap<>();
+		Set<String> missingIds = new LinkedHashSet<>();
+		for (Resource resource : resources) {
+			String sourceId = sourceId(resource);
+			if (sourceId == null || targetsBySource.containsKey(sourceId)) {
+				continue;
+			}
+			ReferenceCache.ReferenceKey key = new ReferenceCache.ReferenceKey(reference.targetResource(), reference.searchParameter(), sourceId);
+			List<IBaseResource> targets = requestScope.get(key);
+			if (targets == null && sharedCache != null) {
+				targets = sharedCache.get(key);
+				if (targets != null) {
+					requestScope.put(key, targets);
+				}
+			}
+			if (targets != null) {
+				targetsBySource.put(sourceId, targets);
+			} else {
+				missingIds.add(sourceId);
+			}
+		}
+
+		if (!missingIds.isEmpty()) {
+			long generation = sharedCache != null ? sharedCache.generation(reference.targetResource()) : 0;
+			Map<String, List<IBaseResource>> searched = search(reference, missingIds);
+			for (String sourceId : missingIds) {
+				List<IBaseResource> targets = searched.getOrDefault(sourceId, List.of());
+				ReferenceCache.ReferenceKey key = new ReferenceCache.ReferenceKey(reference.targetResource(), reference.searchParameter(), sourceId);
+				requestScope.put(key, targets);
+				if (sharedCache != null) {
+					sharedCache.put(key, targets, generation);
+				}
+				targetsBySource.put(sourceId, targets);
+			}
+		}
+		return targetsBySource;
+	}
+
+	private Map<String, List<IBaseResource>> search(Policy.Reference reference, Set<String> sourceIds) {
+		Map<String, List<IBaseResource>> targetsBySource = new HashMap<>();
+		IFhirResourceDao<? extends IBaseResource> resourceDao = resourceDaosByType.get(fhirContext.getResourceDefinition(reference.targetResource())
+																							   .getImplementingClass());
+		// Taken from the registry, which also knows the custom search parameters of the server
+		RuntimeSearchParam searchParam = abacRuleManager.getActiveSearchParams(reference.targetResource()).get(reference.searchParameter());
+
+		if (searchParam == null || sourceIds.size() == 1) {
+			// Without a known search parameter the results cannot be mapped back, so each id is searched on its own
+			for (String sourceId : sourceIds) {
+				SearchParameterMap params = new SearchParameterMap();
+				params.add(reference.searchParameter(), new ReferenceParam(sourceId));
+				targetsBySource.put(sourceId, resourceDao.search(params).getAllResources());
+			}
+			return targetsBySource;
+		}
+
+		ReferenceOrListParam referenceOrList = new ReferenceOrListParam();
+		sourceIds.forEach(sourceId -> referenceOrList.addOr(new ReferenceParam(sourceId)));
+		SearchParameterMap params = new SearchParameterMap();
+		params.add(reference.searchParameter(), referenceOrList);
+
+		for (IBaseResource target : resourceDao.search(params).getAllResources()) {
+			Set<String> referencedIds = new HashSet<>();
+			for (String value : extractor.extractParamValuesAsStrings(searchParam, target)) {
+				String referencedId = normalizeReference(value);
+				if (referencedId != null && sourceIds.contains(referencedId) && referencedIds.add(referencedId)) {
+					targetsBySource.computeIfAbsent(referencedId, id -> new ArrayList<>()).add(target);
+				}
+			}
+		}
+		return targetsBySource;
+	}
+
+	static String sourceId(Resource resource) {
+		if (resource == null || !resource.hasIdElement() || resource.getIdElement().getIdPart() == null) {
+			return null;
+		}
+		return resource.fhirType() + "/" + resource.getIdElement().getIdPart();
+	}
+
+	private static String normalizeReference(String value) {
+		IdType id = new IdType(value);
+		if (!id.hasResourceType() || !id.hasIdPart()) {
+			return null;
+		}
+		return id.getResourceType() + "/" + id.getIdPart();
+	}
+}
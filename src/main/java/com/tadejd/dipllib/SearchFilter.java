@@ -0,0 +1,149 @@
+package com.tadejd.dipllib;
+
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.model.api.IQueryParameterOr;
+import ca.uhn.fhir.rest.param.ReferenceOrListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringOrListParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenOrListParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import care.better.abac.policy.execute.evaluation.BooleanEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.BooleanOperationEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import care.better.abac.policy.execute.evaluation.ResultSetEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.ValueSetEvaluationExpression;
+import com.tadejd.dipllib.evaluation.ExpressionEvaluator;
+import org.antlr.v4.runtime.misc.Triple;
+import org.hl7.fhir.r4.model.IdType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.hl7.fhir.instance.model.api.IAnyResource.SP_RES_ID;
+
+/**
+ * Translates a request-level ABAC decision into {@link SearchParameterMap} constraints, so the database only returns
+ * permitted resources. Only conjunctions of {@link ResultSetEvaluationExpression} and {@link ValueSetEvaluationExpression}
+ * leaves on token, reference and string parameters can be translated; anything else is left to filtering the response.
+ * A leaf is only translated when the search matches exactly the values that filtering the response would accept:
+ * tokens as {@code system|code}, references as {@code Type/id} and strings exactly.
+ *
+ * @author Tadej Delopst
+ */
+class SearchFilter {
+
+	private SearchFilter() {
+		// Private constructor to prevent instantiation
+	}
+
+	/**
+	 * @return {@code true} if the decision was fully added to the search parameters, {@code false} if the search parameters
+	 * were left untouched because the decision cannot be expressed as a search
+	 */
+	static boolean apply(EvaluationExpression expression, SearchParameterMap params, Map<String, RuntimeSearchParam> activeSearchParams,
+						 String resourceName, String policyName) {
+		List<Constraint> constraints = new ArrayList<>();
+		if (!collect(expression, constraints, activeSearchParams, resourceName, policyName)) {
+			return false;
+		}
+		constraints.forEach(constraint -> params.add(constraint.name(), constraint.values()));
+		return true;
+	}
+
+	private static boolean collect(EvaluationExpression expression, List<Constraint> constraints,
+								   Map<String, RuntimeSearchParam> activeSearchParams, String resourceName, String policyName) {
+		if (expression instanceof BooleanEvaluationExpression booleanExpr) {
+			// FALSE cannot be expressed as a search constraint
+			return booleanExpr.getBooleanValue();
+		} else if (expression instanceof BooleanOperationEvaluationExpression boolExpr) {
+			return switch (boolExpr.getBooleanOperation()) {
+				case AND -> collect(boolExpr.getLeftChild(), constraints, activeSearchParams, resourceName, policyName) &&
+					collect(boolExpr.getRightChild(), constraints, activeSearchParams, resourceName, policyName);
+				default -> false;
+			};
+		} else if (expression instanceof ResultSetEvaluationExpression resultSetExpr) {
+			if (resultSetExpr.getExternalIds() == null || resultSetExpr.getExternalIds().isEmpty()) {
+				return false;
+			}
+			TokenOrListParam ids = new TokenOrListParam();
+			resultSetExpr.getExternalIds().forEach(id -> ids.addOr(new TokenParam(id)));
+			constraints.add(new Constraint(SP_RES_ID, ids));
+			return true;
+		} else if (expression instanceof ValueSetEvaluationExpression valueSetExpr) {
+			return collectValueSet(valueSetExpr, constraints, activeSearchParams, resourceName, policyName);
+		}
+		return false;
+	}
+
+	private static boolean collectValueSet(ValueSetEvaluationExpression expression, List<Constraint> constraints,
+										   Map<String, RuntimeSearchParam> activeSearchParams, String resourceName, String policyName) {
+		Triple<String, String, String> pathComponents = ExpressionEvaluator.extractAndValidateExpressionPath(expression, policyName);
+		if (!resourceName.equals(pathComponents.a)) {
+			// Leaves on other resource types always pass, see ExpressionContext.pathDataEquals
+			return true;
+		}
+		if (pathComponents.c != null || expression.getValues() == null || expression.getValues().isEmpty()) {
+			return false;
+		}
+
+		RuntimeSearchParam searchParam = ExpressionEvaluator.validateAndGetSearchParameter(
+			activeSearchParams, pathComponents.b, resourceName, policyName);
+		IQueryParameterOr<?> values;
+		switch (searchParam.getParamType()) {
+			case TOKEN -> {
+				// Extracted token values are "system|code"; a code without a system would match any system in a search
+				TokenOrListParam tokens = new TokenOrListParam();
+				for (String value : expression.getValues()) {
+					int separator = value.indexOf('|');
+					if (separator <= 0 || separator == value.length() - 1 || hasEscapedCharacters(value.substring(0, separator)) ||
+						hasEscapedCharacters(value.substring(separator + 1))) {
+						return false;
+					}
+					tokens.addOr(new TokenParam(value.substring(0, separator), value.substring(separator + 1)));
+				}
+				values = tokens;
+			}
+			case REFERENCE -> {
+				// Only relative "Type/id" references; a bare id or an absolute URL is matched differently by a search
+				ReferenceOrListParam references = new ReferenceOrListParam();
+				for (String value : expression.getValues()) {
+					IdType id = new IdType(value);
+					if (!id.hasResourceType() || !id.hasIdPart() || id.hasBaseUrl() || id.hasVersionIdPart() ||
+						!value.equals(id.getResourceType() + "/" + id.getIdPart())) {
+						return false;
+					}
+					references.addOr(new ReferenceParam(value));
+				}
+				values = references;
+			}
+			case STRING -> {
+				StringOrListParam strings = new StringOrListParam();
+				for (String value : expression.getValues()) {
+					if (hasEscapedCharacters(value)) {
+						return false;
+					}
+					strings.addOr(new StringParam(value, true));
+				}
+				values = strings;
+			}
+			default -> {
+				return false;
+			}
+		}
+		constraints.add(new Constraint(pathComponents.b, values));
+		return true;
+	}
+
+	/**
+	 * Extracted values are query tokens, in which these characters are escaped, so they never equal the raw value.
+	 */
+	private static boolean hasEscapedCharacters(String value) {
+		return value.isEmpty() || value.indexOf('\\') >= 0 || value.indexOf(',') >= 0 || value.indexOf('$') >= 0 || value.indexOf('|') >= 0;
+	}
+
+	private record Constraint(String name, IQueryParameterOr<?> values) {
+	}
+}
@@ -4,6 +4,7 @@ import care.better.abac.policy.execute.evaluation.EvaluationExpression;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Tadej Delopst
@@ -11,4 +12,15 @@ import java.util.Map;
 public interface AbacRestClient {
     EvaluationExpression execute(String policyName, Map<String, String> context);
     List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context);
+
+    /**
+     * Non-blocking variant of {@link #executeMulti}. The default implementation runs the blocking call on the caller's thread.
+     */
+    default CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+        try {
+            return CompletableFuture.completedFuture(executeMulti(policyName, context));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
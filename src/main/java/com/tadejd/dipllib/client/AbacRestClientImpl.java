@@ -1,40 +1,84 @@
 package com.tadejd.dipllib.client;
 
 import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tadejd.dipllib.config.AbacProperties;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.ClientHttpRequestExecution;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
 import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Tadej Delopst
  */
 public class AbacRestClientImpl implements AbacRestClient {
+	private static final String EXECUTE_MULTI_PATH = "/rest/v1/policy/execute/name/{name}/expression/multi";
+	private static final TypeReference<List<EvaluationExpression>> EXPRESSION_LIST_TYPE = new TypeReference<>() {};
+
 	private final String serverUrl;
+	private final Duration readTimeout;
+	private final HttpClient httpClient;
+	private final RestTemplate restTemplate;
+	private final ObjectMapper objectMapper;
+
+	public AbacRestClientImpl(String serverUrl) {
+		this(serverUrl, new AbacProperties.Http());
+	}
+
+	public AbacRestClientImpl(String serverUrl, AbacProperties.Http http) {
+		this.serverUrl = serverUrl;
+		this.readTimeout = http.getReadTimeout();
+		this.httpClient = createHttpClient(http);
 
-	private final RestTemplate restTemplate = new RestTemplate();
-	{
-		restTemplate.setInterceptors(
+		JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+		requestFactory.setReadTimeout(http.getReadTimeout());
+		this.restTemplate = new RestTemplate(requestFactory);
+		this.restTemplate.setInterceptors(
 				List.of(new OAuth2TokenRelayInterceptor())
 		);
+
+		// Use the same mapper as the RestTemplate so both paths serialize identically
+		this.objectMapper = restTemplate.getMessageConverters().stream()
+				.filter(MappingJackson2HttpMessageConverter.class::isInstance)
+				.map(converter -> ((MappingJackson2HttpMessageConverter)converter).getObjectMapper())
+				.findFirst()
+				.orElseGet(() -> Jackson2ObjectMapperBuilder.json().build());
 	}
 
-	public AbacRestClientImpl(String serverUrl) {
-		this.serverUrl = serverUrl;
+	private static HttpClient createHttpClient(AbacProperties.Http http) {
+		// Pool size and keep-alive are JVM-wide settings of the JDK client, so they are not configured per client
+		return HttpClient.newBuilder()
+				.version(http.isHttp2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+				.connectTimeout(http.getConnectTimeout())
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.build();
 	}
 
 	@Override
@@ -48,7 +92,7 @@ public class AbacRestClientImpl implements AbacRestClient {
 	@Override
 	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
 		return restTemplate.exchange(
-			serverUrl + "/rest/v1/policy/execute/name/{name}/expression/multi",
+			serverUrl + EXECUTE_MULTI_PATH,
 			HttpMethod.POST,
 			getHttpEntity(context),
 			new ParameterizedTypeReference<List<EvaluationExpression>>() {},
@@ -56,6 +100,46 @@ public class AbacRestClientImpl implements AbacRestClient {
 		).getBody();
 	}
 
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+		// Body and token are taken from the caller's security context before the request leaves this thread
+		byte[] body;
+		try {
+			body = objectMapper.writeValueAsBytes(getHttpEntity(context).getBody());
+		} catch (JsonProcessingException e) {
+			return CompletableFuture.failedFuture(new RestClientException("Could not serialize ABAC context", e));
+		}
+
+		java.net.http.HttpRequest.Builder request = java.net.http.HttpRequest.newBuilder(
+						restTemplate.getUriTemplateHandler().expand(serverUrl + EXECUTE_MULTI_PATH, policyName))
+				.timeout(readTimeout)
+				.header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.POST(java.net.http.HttpRequest.BodyPublishers.ofByteArray(body));
+		String token = getBearerToken();
+		if (token != null) {
+			request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+		}
+
+		return httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray())
+				.thenApply(this::readExpressions);
+	}
+
+	private List<EvaluationExpression> readExpressions(HttpResponse<byte[]> response) {
+		if (response.statusCode() >= 400) {
+			HttpHeaders headers = new HttpHeaders();
+			response.headers().map().forEach(headers::addAll);
+			throw new RestClientResponseException("ABAC server responded with status " + response.statusCode(),
+												  HttpStatusCode.valueOf(response.statusCode()), "", headers,
+												  response.body(), StandardCharsets.UTF_8);
+		}
+		try {
+			return objectMapper.readValue(response.body(), EXPRESSION_LIST_TYPE);
+		} catch (IOException e) {
+			throw new RestClientException("Could not read ABAC server response", e);
+		}
+	}
+
 	private HttpEntity<Map<String, String>> getHttpEntity(Map<String, String> context) {
 		// Create a mutable map from the context
 		Map<String, String> abacContext = new HashMap<>(context);
@@ -102,6 +186,10 @@ public class AbacRestClientImpl implements AbacRestClient {
 		return new HttpEntity<>(body, headers);
 	}
 
+	private static String getBearerToken() {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		return authentication != null ? authentication.getCredentials().toString() : null;
+	}
 
 	private static class OAuth2TokenRelayInterceptor implements ClientHttpRequestInterceptor {
 		@Override
@@ -109,9 +197,9 @@ public class AbacRestClientImpl implements AbacRestClient {
 			@NotNull HttpRequest request,
 			byte @NotNull [] body,
 			@NotNull ClientHttpRequestExecution execution) throws IOException {
-			Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-			if (authentication != null) {
-				request.getHeaders().add("Authorization", "Bearer " + authentication.getCredentials().toString());
+			String token = getBearerToken();
+			if (token != null) {
+				request.getHeaders().add("Authorization", "Bearer " + token);
 			}
 			return execution.execute(request, body);
 		}
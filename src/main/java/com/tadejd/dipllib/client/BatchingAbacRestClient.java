@@ -0,0 +1,167 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link AbacRestClient} decorator that splits large {@link #executeMulti} calls into batches of at most
+ * {@code maxBatchSize} context entries. Up to {@code maxInFlight} batches are sent concurrently and the answers
+ * are reassembled in the original order.
+ *
+ * @author Tadej Delopst
+ */
+public class BatchingAbacRestClient implements KeyedAbacRestClient {
+	private final KeyedAbacRestClient delegate;
+	private final int maxBatchSize;
+	private final int maxInFlight;
+
+	public BatchingAbacRestClient(AbacRestClient delegate, int maxBatchSize, int maxInFlight) {
+		if (maxBatchSize <= 0 || maxInFlight <= 0) {
+			throw new IllegalArgumentException("ABAC batch size and in-flight batches must be positive, were " +
+												   maxBatchSize + " and " + maxInFlight);
+		}
+		this.delegate = KeyedAbacRestClient.of(delegate);
+		this.maxBatchSize = maxBatchSize;
+		this.maxInFlight = maxInFlight;
+	}
+
+	@Override
+	public EvaluationExpression execute(String policyName, Map<String, String> context) {
+		return delegate.execute(policyName, context);
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+		if (context.size() <= maxBatchSize) {
+			return delegate.executeMulti(policyName, context);
+		}
+		return join(dispatch(policyName, context, null));
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context, List<DecisionCache.Key> keys) {
+		if (context.size() <= maxBatchSize) {
+			return delegate.executeMulti(policyName, context, keys);
+		}
+		return join(dispatch(policyName, context, keys));
+	}
+
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+		if (context.size() <= maxBatchSize) {
+			return delegate.executeMultiAsync(policyName, context);
+		}
+		return dispatch(policyName, context, null);
+	}
+
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context,
+																			List<DecisionCache.Key> keys) {
+		if (context.size() <= maxBatchSize) {
+			return delegate.executeMultiAsync(policyName, context, keys);
+		}
+		return dispatch(policyName, context, keys);
+	}
+
+	private static List<EvaluationExpression> join(CompletableFuture<List<EvaluationExpression>> response) {
+		try {
+			return response.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @param keys cache keys of the context entries, split along with them, or {@code null}
+	 */
+	private CompletableFuture<List<EvaluationExpression>> dispatch(String policyName, List<Map<String, Object>> context,
+																   List<DecisionCache.Key> keys) {
+		BatchDispatch dispatch = new BatchDispatch(policyName, context, keys);
+		for (int i = 0; i < Math.min(maxInFlight, dispatch.batches.size()); i++) {
+			dispatch.sendNext();
+		}
+		return CompletableFuture.allOf(dispatch.batches.toArray(CompletableFuture[]::new))
+			.thenApply(ignored -> {
+				List<EvaluationExpression> decisions = new ArrayList<>(context.size());
+				dispatch.batches.forEach(batch -> decisions.addAll(batch.join()));
+				return decisions;
+			});
+	}
+
+	/**
+	 * Sends the batches of one call in order. Each completed batch sends the next one, so the number of batches
+	 * in flight never exceeds the number started initially.
+	 */
+	private class BatchDispatch {
+		private final String policyName;
+		private final List<Map<String, Object>> context;
+		private final List<DecisionCache.Key> keys;
+		private final List<CompletableFuture<List<EvaluationExpression>>> batches = new ArrayList<>();
+		private final AtomicInteger next = new AtomicInteger();
+		private final AtomicReference<Throwable> failure = new AtomicReference<>();
+		// Batches may be sent from the thread completing the previous one, which has no authentication of its own
+		private final SecurityContext securityContext = SecurityContextHolder.getContext();
+
+		private BatchDispatch(String policyName, List<Map<String, Object>> context, List<DecisionCache.Key> keys) {
+			this.policyName = policyName;
+			this.context = context;
+			this.keys = keys;
+			for (int i = 0; i < context.size(); i += maxBatchSize) {
+				batches.add(new CompletableFuture<>());
+			}
+		}
+
+		private void sendNext() {
+			int batch = next.getAndIncrement();
+			if (batch >= batches.size()) {
+				return;
+			}
+			if (failure.get() != null) {
+				// Do not send the remaining batches once the call has failed
+				batches.get(batch).completeExceptionally(failure.get());
+				sendNext();
+				return;
+			}
+
+			int from = batch * maxBatchSize;
+			int to = Math.min(from + maxBatchSize, context.size());
+			List<Map<String, Object>> batchContext = context.subList(from, to);
+			CompletableFuture<List<EvaluationExpression>> response;
+			try {
+				response = keys != null ? delegate.executeMultiAsync(policyName, batchContext, keys.subList(from, to)) :
+					delegate.executeMultiAsync(policyName, batchContext);
+			} catch (RuntimeException e) {
+				response = CompletableFuture.failedFuture(e);
+			}
+			response.whenComplete((decisions, error) -> {
+				if (error != null) {
+					Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+					failure.compareAndSet(null, cause);
+					batches.get(batch).completeExceptionally(cause);
+				} else if (decisions == null || decisions.size() != batchContext.size()) {
+					IllegalStateException mismatch = new IllegalStateException(
+						"ABAC server returned " + (decisions == null ? 0 : decisions.size()) + " decisions for " +
+							batchContext.size() + " context entries of policy '" + policyName + "'");
+					failure.compareAndSet(null, mismatch);
+					batches.get(batch).completeExceptionally(mismatch);
+				} else {
+					batches.get(batch).complete(decisions);
+				}
+				new DelegatingSecurityContextRunnable(this::sendNext, securityContext).run();
+			});
+		}
+	}
+}
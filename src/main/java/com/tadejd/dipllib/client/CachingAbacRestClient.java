@@ -0,0 +1,125 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.tadejd.dipllib.metrics.AbacMetrics;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link AbacRestClient} decorator that serves repeated decisions from a {@link DecisionCache}.
+ * Only context entries without a cached decision are sent to the ABAC server; the answers are merged back by position.
+ * Decisions are cached per authenticated user, so the same context never leaks a decision across users.
+ * The keys of the missing entries are passed on to the delegate, see {@link KeyedAbacRestClient}.
+ *
+ * @author Tadej Delopst
+ */
+public class CachingAbacRestClient implements AbacRestClient {
+	private final KeyedAbacRestClient delegate;
+	private final DecisionCache cache;
+	private final AbacMetrics metrics;
+
+	public CachingAbacRestClient(AbacRestClient delegate, DecisionCache cache) {
+		this(delegate, cache, AbacMetrics.NOOP);
+	}
+
+	public CachingAbacRestClient(AbacRestClient delegate, DecisionCache cache, AbacMetrics metrics) {
+		this.delegate = KeyedAbacRestClient.of(delegate);
+		this.cache = cache;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public EvaluationExpression execute(String policyName, Map<String, String> context) {
+		return delegate.execute(policyName, context);
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+		Lookup lookup = lookup(policyName, context);
+		if (lookup.missingContext.isEmpty()) {
+			return Arrays.asList(lookup.decisions);
+		}
+		return lookup.merge(delegate.executeMulti(policyName, lookup.missingContext, lookup.missingKeys));
+	}
+
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+		Lookup lookup = lookup(policyName, context);
+		if (lookup.missingContext.isEmpty()) {
+			return CompletableFuture.completedFuture(Arrays.asList(lookup.decisions));
+		}
+		return delegate.executeMultiAsync(policyName, lookup.missingContext, lookup.missingKeys).thenApply(lookup::merge);
+	}
+
+	public DecisionCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return cache keys of the context entries for the current user
+	 */
+	static List<DecisionCache.Key> keys(String policyName, List<Map<String, Object>> context) {
+		String user = currentUser();
+		List<DecisionCache.Key> keys = new ArrayList<>(context.size());
+		for (Map<String, Object> entry : context) {
+			keys.add(new DecisionCache.Key(user, policyName, Collections.unmodifiableMap(new HashMap<>(entry))));
+		}
+		return keys;
+	}
+
+	private Lookup lookup(String policyName, List<Map<String, Object>> context) {
+		List<DecisionCache.Key> keys = keys(policyName, context);
+		Lookup lookup = new Lookup(policyName, cache.getAll(keys));
+		for (int i = 0; i < lookup.decisions.length; i++) {
+			if (lookup.decisions[i] == null) {
+				lookup.missingPositions[lookup.missingContext.size()] = i;
+				lookup.missingContext.add(context.get(i));
+				lookup.missingKeys.add(keys.get(i));
+			}
+		}
+		metrics.recordCacheLookup(policyName, context.size() - lookup.missingContext.size(), lookup.missingContext.size());
+		return lookup;
+	}
+
+	private static String currentUser() {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		return authentication != null ? authentication.getName() : null;
+	}
+
+	private class Lookup {
+		private final String policyName;
+		private final EvaluationExpression[] decisions;
+		private final List<Map<String, Object>> missingContext = new ArrayList<>();
+		private final List<DecisionCache.Key> missingKeys = new ArrayList<>();
+		private final int[] missingPositions;
+
+		private Lookup(String policyName, EvaluationExpression[] decisions) {
+			this.policyName = policyName;
+			this.decisions = decisions;
+			this.missingPositions = new int[decisions.length];
+		}
+
+		private List<EvaluationExpression> merge(List<EvaluationExpression> response) {
+			if (response == null || response.size() != missingContext.size()) {
+				throw new IllegalStateException("ABAC server returned " + (response == null ? 0 : response.size()) +
+													" decisions for " + missingContext.size() + " context entries of policy '" +
+													policyName + "'");
+			}
+			if (!ResilientAbacRestClient.isFallback(response)) {
+				cache.putAll(missingKeys, response);
+			}
+			for (int i = 0; i < response.size(); i++) {
+				decisions[missingPositions[i]] = response.get(i);
+			}
+			return Arrays.asList(decisions);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.tadejd.dipllib.client;
+
+import java.time.Duration;
+
+/**
+ * Count-based circuit breaker. It opens when the failure rate of the last {@code slidingWindowSize} calls reaches
+ * the threshold, rejects calls while open, and then lets a single trial call decide whether to close again.
+ *
+ * @author Tadej Delopst
+ */
+class CircuitBreaker {
+	enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final boolean[] failures;
+	private final int minimumCalls;
+	private final double failureRateThreshold;
+	private final long openNanos;
+
+	private State state = State.CLOSED;
+	private int calls;
+	private int next;
+	private int failureCount;
+	private long openUntil;
+	private boolean trialInFlight;
+
+	CircuitBreaker(int slidingWindowSize, int minimumCalls, double failureRateThreshold, Duration openDuration) {
+		if (slidingWindowSize <= 0) {
+			throw new IllegalArgumentException("ABAC circuit breaker window must be positive, was " + slidingWindowSize);
+		}
+		this.failures = new boolean[slidingWindowSize];
+		this.minimumCalls = Math.min(minimumCalls, slidingWindowSize);
+		this.failureRateThreshold = failureRateThreshold;
+		this.openNanos = openDuration.toNanos();
+	}
+
+	/**
+	 * @return {@code true} if a call may be made; the outcome must then be reported with {@link #onSuccess},
+	 * {@link #onFailure} or {@link #onIgnored}
+	 */
+	synchronized boolean tryAcquirePermission() {
+		switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if (System.nanoTime() - openUntil < 0) {
+					return false;
+				}
+				state = State.HALF_OPEN;
+				trialInFlight = false;
+				// Fall through to let this call be the trial
+			default:
+				if (trialInFlight) {
+					return false;
+				}
+				trialInFlight = true;
+				return true;
+		}
+	}
+
+	/**
+	 * @return {@code true} if this call closed the circuit
+	 */
+	synchronized boolean onSuccess() {
+		if (state == State.HALF_OPEN) {
+			close();
+			return true;
+		}
+		if (state == State.CLOSED) {
+			record(false);
+		}
+		return false;
+	}
+
+	/**
+	 * @return {@code true} if this call opened the circuit
+	 */
+	synchronized boolean onFailure() {
+		if (state == State.HALF_OPEN) {
+			open();
+			return true;
+		}
+		if (state == State.CLOSED) {
+			record(true);
+			if (calls >= minimumCalls && (double)failureCount / calls >= failureRateThreshold) {
+				open();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reports a call that neither succeeded nor failed, for example because it was rejected before being sent.
+	 */
+	synchronized void onIgnored() {
+		if (state == State.HALF_OPEN) {
+			trialInFlight = false;
+		}
+	}
+
+	synchronized State getState() {
+		return state;
+	}
+
+	private void record(boolean failure) {
+		if (calls == failures.length) {
+			if (failures[next]) {
+				failureCount--;
+			}
+		} else {
+			calls++;
+		}
+		failures[next] = failure;
+		if (failure) {
+			failureCount++;
+		}
+		next = (next + 1) % failures.length;
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openUntil = System.nanoTime() + openNanos;
+		trialInFlight = false;
+	}
+
+	private void close() {
+		state = State.CLOSED;
+		calls = 0;
+		next = 0;
+		failureCount = 0;
+		trialInFlight = false;
+	}
+}
@@ -0,0 +1,149 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.tadejd.dipllib.metrics.AbacMetrics;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link AbacRestClient} decorator that lets concurrent identical {@link #executeMulti} calls share one request.
+ * Calls are identical when they are made by the same user with the same credentials, which are sent with the request,
+ * for the same policy and context entries. The first caller
+ * sends the request, later callers wait for its answer for at most {@code timeout}; a failed request fails every
+ * waiting caller. The request is forgotten as soon as it completes, so no decision outlives it.
+ *
+ * @author Tadej Delopst
+ */
+public class CoalescingAbacRestClient implements KeyedAbacRestClient {
+	private final KeyedAbacRestClient delegate;
+	private final long timeoutNanos;
+	private final AbacMetrics metrics;
+	private final Map<FlightKey, CompletableFuture<List<EvaluationExpression>>> inFlight = new ConcurrentHashMap<>();
+
+	public CoalescingAbacRestClient(AbacRestClient delegate, Duration timeout) {
+		this(delegate, timeout, AbacMetrics.NOOP);
+	}
+
+	public CoalescingAbacRestClient(AbacRestClient delegate, Duration timeout, AbacMetrics metrics) {
+		this.delegate = KeyedAbacRestClient.of(delegate);
+		this.timeoutNanos = timeout.toNanos();
+		this.metrics = metrics;
+	}
+
+	@Override
+	public EvaluationExpression execute(String policyName, Map<String, String> context) {
+		return delegate.execute(policyName, context);
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+		return executeMulti(policyName, context, CachingAbacRestClient.keys(policyName, context));
+	}
+
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+		return executeMultiAsync(policyName, context, CachingAbacRestClient.keys(policyName, context));
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context, List<DecisionCache.Key> keys) {
+		FlightKey key = new FlightKey(currentCredentials(), keys);
+		CompletableFuture<List<EvaluationExpression>> flight = new CompletableFuture<>();
+		CompletableFuture<List<EvaluationExpression>> existing = inFlight.putIfAbsent(key, flight);
+		if (existing != null) {
+			metrics.recordCoalescedRequest(policyName);
+			return await(policyName, key, existing);
+		}
+
+		// The first caller sends the request on its own thread, like without coalescing
+		try {
+			List<EvaluationExpression> decisions = delegate.executeMulti(policyName, context, keys);
+			inFlight.remove(key, flight);
+			flight.complete(decisions);
+			return decisions;
+		} catch (RuntimeException | Error e) {
+			inFlight.remove(key, flight);
+			flight.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context,
+																			List<DecisionCache.Key> keys) {
+		FlightKey key = new FlightKey(currentCredentials(), keys);
+		CompletableFuture<List<EvaluationExpression>> flight = new CompletableFuture<>();
+		CompletableFuture<List<EvaluationExpression>> existing = inFlight.putIfAbsent(key, flight);
+		if (existing != null) {
+			metrics.recordCoalescedRequest(policyName);
+			// Each caller gets its own future, so cancelling or timing out one does not affect the others
+			return existing.copy()
+				.orTimeout(timeoutNanos, TimeUnit.NANOSECONDS)
+				.whenComplete((decisions, error) -> {
+					if (unwrap(error) instanceof TimeoutException) {
+						inFlight.remove(key, existing);
+					}
+				});
+		}
+
+		CompletableFuture<List<EvaluationExpression>> response;
+		try {
+			response = delegate.executeMultiAsync(policyName, context, keys);
+		} catch (RuntimeException e) {
+			response = CompletableFuture.failedFuture(e);
+		}
+		response.whenComplete((decisions, error) -> {
+			// Removed before completing, so callers arriving after the answer send a new request
+			inFlight.remove(key, flight);
+			if (error != null) {
+				flight.completeExceptionally(unwrap(error));
+			} else {
+				flight.complete(decisions);
+			}
+		});
+		return flight.copy();
+	}
+
+	private List<EvaluationExpression> await(String policyName, FlightKey key,
+											 CompletableFuture<List<EvaluationExpression>> flight) {
+		try {
+			return flight.get(timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for ABAC decisions of policy '" + policyName + "'", e);
+		} catch (TimeoutException e) {
+			// A request that does not answer in time is not shared with further callers
+			inFlight.remove(key, flight);
+			throw new IllegalStateException("No ABAC decisions of policy '" + policyName + "' within " +
+												TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new IllegalStateException("ABAC policy evaluation failed", e.getCause());
+		}
+	}
+
+	private static String currentCredentials() {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		return authentication != null && authentication.getCredentials() != null ? authentication.getCredentials().toString() : null;
+	}
+
+	private static Throwable unwrap(Throwable error) {
+		return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+	}
+
+	// Requests carry the caller's token, so a request is only shared with callers holding the same one
+	private record FlightKey(String credentials, List<DecisionCache.Key> entries) {
+	}
+}
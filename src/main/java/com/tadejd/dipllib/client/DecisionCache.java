@@ -0,0 +1,109 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size-bounded, time-limited store of ABAC decisions keyed by user, policy name and context entry.
+ * Least recently used entries are evicted once {@code maxSize} is reached. Expired decisions can be kept for
+ * {@code maxStale} longer, to be served by {@link #getAllStale} while the ABAC server is unavailable.
+ *
+ * @author Tadej Delopst
+ */
+public class DecisionCache {
+	private final long ttlNanos;
+	private final long maxStaleNanos;
+	private final int maxSize;
+	private final LinkedHashMap<Key, Entry> entries;
+
+	public DecisionCache(Duration ttl, int maxSize) {
+		this(ttl, maxSize, Duration.ZERO);
+	}
+
+	public DecisionCache(Duration ttl, int maxSize, Duration maxStale) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("ABAC decision cache size must be positive, was " + maxSize);
+		}
+		this.ttlNanos = ttl.toNanos();
+		this.maxStaleNanos = maxStale.toNanos();
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > DecisionCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Looks up all keys under a single lock acquisition. Missing or expired decisions are returned as {@code null}.
+	 */
+	public synchronized EvaluationExpression[] getAll(List<Key> keys) {
+		long now = System.nanoTime();
+		EvaluationExpression[] result = new EvaluationExpression[keys.size()];
+		for (int i = 0; i < result.length; i++) {
+			Entry entry = entries.get(keys.get(i));
+			if (entry != null) {
+				if (now - entry.expiresAt() < 0) {
+					result[i] = entry.expression();
+				} else if (now - entry.expiresAt() - maxStaleNanos >= 0) {
+					entries.remove(keys.get(i));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Like {@link #getAll}, but also returns decisions that expired less than {@code maxStale} ago.
+	 */
+	public synchronized EvaluationExpression[] getAllStale(List<Key> keys) {
+		long now = System.nanoTime();
+		EvaluationExpression[] result = new EvaluationExpression[keys.size()];
+		for (int i = 0; i < result.length; i++) {
+			Entry entry = entries.get(keys.get(i));
+			if (entry != null) {
+				if (now - entry.expiresAt() - maxStaleNanos < 0) {
+					result[i] = entry.expression();
+				} else {
+					entries.remove(keys.get(i));
+				}
+			}
+		}
+		return result;
+	}
+
+	public synchronized void putAll(List<Key> keys, List<EvaluationExpression> expressions) {
+		long expiresAt = System.nanoTime() + ttlNanos;
+		for (int i = 0; i < keys.size(); i++) {
+			if (expressions.get(i) != null) {
+				entries.put(keys.get(i), new Entry(expressions.get(i), expiresAt));
+			}
+		}
+	}
+
+	public synchronized void invalidate(String policyName) {
+		entries.keySet().removeIf(key -> policyName.equals(key.policyName()));
+	}
+
+	public synchronized void invalidateAll() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * The context map must not be modified after the key is created.
+	 */
+	public record Key(String user, String policyName, Map<String, Object> context) {
+	}
+
+	private record Entry(EvaluationExpression expression, long expiresAt) {
+	}
+}
@@ -0,0 +1,62 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Internal contract of the decorators below {@link CachingAbacRestClient}: calls carry the {@link DecisionCache.Key}s
+ * of their context entries, one per entry, created once on the caller's thread. Decorators that need the keys use
+ * them instead of copying the context again, and all others pass them on to their delegate. Clients outside this
+ * contract, such as {@link AbacRestClientImpl}, are adapted with {@link #of}, which drops the keys.
+ *
+ * @author Tadej Delopst
+ */
+interface KeyedAbacRestClient extends AbacRestClient {
+	/**
+	 * Same as {@link #executeMulti(String, List)}, with the cache keys of the context entries.
+	 */
+	List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context, List<DecisionCache.Key> keys);
+
+	/**
+	 * Same as {@link #executeMultiAsync(String, List)}, with the cache keys of the context entries.
+	 */
+	CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context,
+																	 List<DecisionCache.Key> keys);
+
+	static KeyedAbacRestClient of(AbacRestClient client) {
+		if (client instanceof KeyedAbacRestClient keyed) {
+			return keyed;
+		}
+		return new KeyedAbacRestClient() {
+			@Override
+			public EvaluationExpression execute(String policyName, Map<String, String> context) {
+				return client.execute(policyName, context);
+			}
+
+			@Override
+			public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+				return client.executeMulti(policyName, context);
+			}
+
+			@Override
+			public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+				return client.executeMultiAsync(policyName, context);
+			}
+
+			@Override
+			public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context,
+														   List<DecisionCache.Key> keys) {
+				return client.executeMulti(policyName, context);
+			}
+
+			@Override
+			public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context,
+																			 List<DecisionCache.Key> keys) {
+				return client.executeMultiAsync(policyName, context);
+			}
+		};
+	}
+}
@@ -0,0 +1,67 @@
+package com.tadejd.dipllib.client;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent calls and derives a timeout from them: a multiple of the configured
+ * percentile, within the minimum and maximum. The percentile is recomputed every {@link #RECOMPUTE_INTERVAL} samples
+ * rather than on every call. Calls that time out are recorded at their timeout, as they took at least that long;
+ * otherwise a slowing server would only be observed through its fast calls and the timeout would never grow.
+ *
+ * @author Tadej Delopst
+ */
+class LatencyTracker {
+	private static final int WINDOW_SIZE = 512;
+	private static final int RECOMPUTE_INTERVAL = 64;
+	// Until this many calls have been observed the maximum timeout applies
+	private static final int MIN_SAMPLES = 20;
+
+	private final long[] samples = new long[WINDOW_SIZE];
+	private final long minTimeoutNanos;
+	private final long maxTimeoutNanos;
+	private final double percentile;
+	private final double multiplier;
+
+	private long count;
+	private int next;
+	private volatile long timeoutNanos;
+
+	LatencyTracker(Duration minTimeout, Duration maxTimeout, double percentile, double multiplier) {
+		if (percentile <= 0 || percentile > 1) {
+			throw new IllegalArgumentException("ABAC timeout percentile must be in (0, 1], was " + percentile);
+		}
+		this.minTimeoutNanos = minTimeout.toNanos();
+		this.maxTimeoutNanos = Math.max(minTimeoutNanos, maxTimeout.toNanos());
+		this.percentile = percentile;
+		this.multiplier = multiplier;
+		this.timeoutNanos = maxTimeoutNanos;
+	}
+
+	long timeoutNanos() {
+		return timeoutNanos;
+	}
+
+	long maxTimeoutNanos() {
+		return maxTimeoutNanos;
+	}
+
+	/**
+	 * Records a call that did not complete within {@code timeoutNanos}, with its timeout as a lower bound of its latency.
+	 */
+	void recordTimeout(long timeoutNanos) {
+		record(timeoutNanos);
+	}
+
+	synchronized void record(long latencyNanos) {
+		samples[next] = latencyNanos;
+		next = (next + 1) % WINDOW_SIZE;
+		count++;
+		if (count >= MIN_SAMPLES && count % RECOMPUTE_INTERVAL == 0 || count == MIN_SAMPLES) {
+			long[] sorted = Arrays.copyOf(samples, (int)Math.min(count, WINDOW_SIZE));
+			Arrays.sort(sorted);
+			long latency = sorted[Math.min(sorted.length - 1, (int)Math.ceil(percentile * sorted.length) - 1)];
+			timeoutNanos = Math.max(minTimeoutNanos, Math.min(maxTimeoutNanos, (long)(latency * multiplier)));
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.BooleanEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.tadejd.dipllib.config.AbacProperties;
+import com.tadejd.dipllib.config.AbacProperties.LocalRules;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link AbacRestClient} that evaluates policies in-process from {@link LocalRules}, without calling the ABAC server.
+ * Each context entry is answered with a {@link BooleanEvaluationExpression}.
+ *
+ * @author Tadej Delopst
+ */
+public class LocalAbacRestClient implements AbacRestClient {
+	private static final BooleanEvaluationExpression ALLOW = new BooleanEvaluationExpression(true);
+	private static final BooleanEvaluationExpression DENY = new BooleanEvaluationExpression(false);
+	private static final String USER_ATTRIBUTE = "user";
+	private static final String ROLES_ATTRIBUTE = "roles";
+
+	private final Map<String, CompiledRules> rules = new HashMap<>();
+
+	public LocalAbacRestClient(Map<String, LocalRules> rulesByPolicy) {
+		rulesByPolicy.forEach((policyName, policyRules) -> rules.put(policyName, new CompiledRules(policyName, policyRules)));
+	}
+
+	/**
+	 * Collects the rules of all policies with {@code engine: local}, defined inline or in {@code abac.local.rules-file}.
+	 * Inline rules take precedence over the file.
+	 */
+	public static LocalAbacRestClient fromProperties(AbacProperties abacProperties) {
+		Map<String, LocalRules> fileRules = abacProperties.getLocal().getRulesFile() != null ?
+			readRules(abacProperties.getLocal().getRulesFile()) : Map.of();
+
+		Map<String, LocalRules> rulesByPolicy = new HashMap<>();
+		if (abacProperties.getPolicies() != null) {
+			for (AbacProperties.PolicyProperties policy : abacProperties.getPolicies()) {
+				if (policy.getEngine() != AbacProperties.PolicyProperties.Engine.LOCAL) {
+					continue;
+				}
+				LocalRules policyRules = policy.getRules() != null ? policy.getRules() : fileRules.get(policy.getName());
+				if (policyRules == null) {
+					throw new IllegalArgumentException("Policy '" + policy.getName() + "' is evaluated locally but has no rules");
+				}
+				if (policy.getMappings() != null) {
+					for (AbacProperties.PolicyProperties.Mapping mapping : policy.getMappings()) {
+						if (USER_ATTRIBUTE.equals(mapping.getContextAttribute()) || ROLES_ATTRIBUTE.equals(mapping.getContextAttribute())) {
+							throw new IllegalArgumentException("Policy '" + policy.getName() + "' is evaluated locally and cannot map the " +
+																   "context attribute '" + mapping.getContextAttribute() +
+																   "', which is the authenticated user's");
+						}
+					}
+				}
+				rulesByPolicy.put(policy.getName(), policyRules);
+			}
+		}
+		return new LocalAbacRestClient(rulesByPolicy);
+	}
+
+	private static Map<String, LocalRules> readRules(String location) {
+		ObjectMapper objectMapper = JsonMapper.builder()
+			.enable(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS)
+			.build();
+		Resource resource = new DefaultResourceLoader().getResource(location);
+		try (InputStream input = resource.getInputStream()) {
+			return objectMapper.readValue(input, new TypeReference<Map<String, LocalRules>>() {});
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read local ABAC rules from " + location, e);
+		}
+	}
+
+	public boolean supports(String policyName) {
+		return rules.containsKey(policyName);
+	}
+
+	public boolean hasPolicies() {
+		return !rules.isEmpty();
+	}
+
+	/**
+	 * @return whether entries the local rules of the policy deny are to be decided by the ABAC server
+	 */
+	public boolean fallsBackToRemote(String policyName) {
+		CompiledRules policyRules = rules.get(policyName);
+		return policyRules != null && policyRules.remoteFallback;
+	}
+
+	@Override
+	public EvaluationExpression execute(String policyName, Map<String, String> context) {
+		return getRules(policyName).test(context, currentUser()) ? ALLOW : DENY;
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+		CompiledRules policyRules = getRules(policyName);
+		CurrentUser user = currentUser();
+		List<EvaluationExpression> decisions = new ArrayList<>(context.size());
+		for (Map<String, Object> entry : context) {
+			decisions.add(policyRules.test(entry, user) ? ALLOW : DENY);
+		}
+		return decisions;
+	}
+
+	private CompiledRules getRules(String policyName) {
+		CompiledRules policyRules = rules.get(policyName);
+		if (policyRules == null) {
+			throw new IllegalArgumentException("Policy '" + policyName + "' has no local rules");
+		}
+		return policyRules;
+	}
+
+	private static CurrentUser currentUser() {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		if (authentication == null) {
+			return new CurrentUser(null, List.of());
+		}
+		List<String> roles = new ArrayList<>();
+		for (GrantedAuthority authority : authentication.getAuthorities()) {
+			roles.add(authority.getAuthority());
+		}
+		return new CurrentUser(authentication.getName(), roles);
+	}
+
+	private record CurrentUser(String name, List<String> roles) {
+	}
+
+	/**
+	 * Rules of one policy with the condition values in sets, so each check is a hash lookup.
+	 */
+	private static final class CompiledRules {
+		private final boolean matchAll;
+		private final boolean remoteFallback;
+		private final List<CompiledCondition> conditions = new ArrayList<>();
+
+		private CompiledRules(String policyName, LocalRules rules) {
+			this.matchAll = rules.getMatch() != LocalRules.Match.ANY;
+			this.remoteFallback = rules.isRemoteFallback();
+			for (LocalRules.Condition condition : rules.getConditions()) {
+				if (condition.getAttribute() == null) {
+					throw new IllegalArgumentException("Policy '" + policyName + "' has a local rule condition without an attribute");
+				}
+				conditions.add(new CompiledCondition(condition.getAttribute(), condition.getOperator(),
+													 condition.getValues() != null ? new HashSet<>(condition.getValues()) : Set.of()));
+			}
+		}
+
+		private boolean test(Map<String, ?> context, CurrentUser user) {
+			for (CompiledCondition condition : conditions) {
+				boolean result = condition.test(context, user);
+				if (result != matchAll) {
+					// The first failing condition decides ALL, the first passing one decides ANY
+					return result;
+				}
+			}
+			return matchAll;
+		}
+	}
+
+	private record CompiledCondition(String attribute, LocalRules.Operator operator, Set<String> values) {
+
+		private boolean test(Map<String, ?> context, CurrentUser user) {
+			Collection<?> attributeValues = attributeValues(context, user);
+			return switch (operator) {
+				case PRESENT -> !attributeValues.isEmpty();
+				case ABSENT -> attributeValues.isEmpty();
+				case EQUALS -> containsAny(attributeValues);
+				case NOT_EQUALS -> !containsAny(attributeValues);
+			};
+		}
+
+		private boolean containsAny(Collection<?> attributeValues) {
+			for (Object value : attributeValues) {
+				if (value != null && values.contains(value.toString())) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private Collection<?> attributeValues(Map<String, ?> context, CurrentUser user) {
+			// The user and roles always come from the authentication, so a context entry cannot claim another identity
+			if (USER_ATTRIBUTE.equals(attribute)) {
+				return user.name() != null ? List.of(user.name()) : List.of();
+			} else if (ROLES_ATTRIBUTE.equals(attribute)) {
+				return user.roles();
+			}
+			Object value = context.get(attribute);
+			if (value == null) {
+				return List.of();
+			}
+			return value instanceof Collection<?> collection ? collection : List.of(value);
+		}
+	}
+}
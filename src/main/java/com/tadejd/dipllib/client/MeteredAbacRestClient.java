@@ -0,0 +1,85 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.tadejd.dipllib.metrics.AbacMetrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * {@link AbacRestClient} decorator that records the latency and size of every {@link #executeMulti} call.
+ *
+ * @author Tadej Delopst
+ */
+public class MeteredAbacRestClient implements KeyedAbacRestClient {
+	private final KeyedAbacRestClient delegate;
+	private final AbacMetrics metrics;
+
+	public MeteredAbacRestClient(AbacRestClient delegate, AbacMetrics metrics) {
+		this.delegate = KeyedAbacRestClient.of(delegate);
+		this.metrics = metrics;
+	}
+
+	@Override
+	public EvaluationExpression execute(String policyName, Map<String, String> context) {
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			EvaluationExpression decision = delegate.execute(policyName, context);
+			success = true;
+			return decision;
+		} finally {
+			metrics.recordDecisionRequest(policyName, 1, System.nanoTime() - start, success);
+		}
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+		return measure(policyName, context, () -> delegate.executeMulti(policyName, context));
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context, List<DecisionCache.Key> keys) {
+		return measure(policyName, context, () -> delegate.executeMulti(policyName, context, keys));
+	}
+
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+		return measureAsync(policyName, context, () -> delegate.executeMultiAsync(policyName, context));
+	}
+
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context,
+																			List<DecisionCache.Key> keys) {
+		return measureAsync(policyName, context, () -> delegate.executeMultiAsync(policyName, context, keys));
+	}
+
+	private List<EvaluationExpression> measure(String policyName, List<Map<String, Object>> context,
+											   Supplier<List<EvaluationExpression>> call) {
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			List<EvaluationExpression> decisions = call.get();
+			success = true;
+			return decisions;
+		} finally {
+			metrics.recordDecisionRequest(policyName, context.size(), System.nanoTime() - start, success);
+		}
+	}
+
+	private CompletableFuture<List<EvaluationExpression>> measureAsync(String policyName, List<Map<String, Object>> context,
+																	   Supplier<CompletableFuture<List<EvaluationExpression>>> call) {
+		long start = System.nanoTime();
+		CompletableFuture<List<EvaluationExpression>> response;
+		try {
+			response = call.get();
+		} catch (RuntimeException e) {
+			// Reported through the future, like a failure of the call itself
+			response = CompletableFuture.failedFuture(e);
+		}
+		return response.whenComplete((decisions, error) ->
+			metrics.recordDecisionRequest(policyName, context.size(), System.nanoTime() - start, error == null));
+	}
+}
@@ -0,0 +1,280 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.BooleanEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.tadejd.dipllib.config.AbacProperties;
+import com.tadejd.dipllib.metrics.AbacMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link AbacRestClient} decorator that keeps a slow or failing ABAC server from blocking request threads.
+ * <ul>
+ *     <li>a bulkhead limits the calls in flight, callers wait at most {@code maxWait} for a free slot;</li>
+ *     <li>every call times out after a multiple of the observed latency percentile;</li>
+ *     <li>a circuit breaker stops calling the server while most recent calls failed.</li>
+ * </ul>
+ * A call that cannot be made or fails is answered with cached decisions, possibly stale, where available, and
+ * otherwise denied, or allowed for fail-open policies. Client errors (4xx) and cancellations are passed on unchanged.
+ * A call that timed out keeps its bulkhead slot until it actually ends. Fallback decisions are marked, so
+ * that a {@link CachingAbacRestClient} above this client does not cache them. Fallbacks are counted in the metrics and
+ * logged at most once every 10 seconds; opening and closing of the circuit is logged on every change.
+ *
+ * @author Tadej Delopst
+ */
+public class ResilientAbacRestClient implements KeyedAbacRestClient {
+	private static final Logger log = LoggerFactory.getLogger(ResilientAbacRestClient.class);
+
+	private static final BooleanEvaluationExpression ALLOW = new BooleanEvaluationExpression(true);
+	private static final BooleanEvaluationExpression DENY = new BooleanEvaluationExpression(false);
+	private static final long WARNING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private final KeyedAbacRestClient delegate;
+	private final Semaphore bulkhead;
+	private final long maxWaitNanos;
+	private final LatencyTracker latency;
+	private final CircuitBreaker circuitBreaker;
+	private final Set<String> failOpenPolicies;
+	private final DecisionCache staleDecisions;
+	private final AbacMetrics metrics;
+	private final AtomicLong nextWarning = new AtomicLong(System.nanoTime());
+	private final AtomicInteger suppressedWarnings = new AtomicInteger();
+
+	public ResilientAbacRestClient(AbacRestClient delegate, AbacProperties.Resilience resilience, Set<String> failOpenPolicies,
+								   DecisionCache staleDecisions) {
+		this(delegate, resilience, failOpenPolicies, staleDecisions, AbacMetrics.NOOP);
+	}
+
+	/**
+	 * @param failOpenPolicies policies whose entries are allowed when no decision can be obtained
+	 * @param staleDecisions   cache to serve decisions from while the server is unavailable, or {@code null}
+	 */
+	public ResilientAbacRestClient(AbacRestClient delegate, AbacProperties.Resilience resilience, Set<String> failOpenPolicies,
+								   DecisionCache staleDecisions, AbacMetrics metrics) {
+		if (resilience.getMaxConcurrentCalls() <= 0) {
+			throw new IllegalArgumentException("ABAC concurrent calls must be positive, were " + resilience.getMaxConcurrentCalls());
+		}
+		this.delegate = KeyedAbacRestClient.of(delegate);
+		this.bulkhead = new Semaphore(resilience.getMaxConcurrentCalls());
+		this.maxWaitNanos = resilience.getMaxWait().toNanos();
+		this.latency = new LatencyTracker(resilience.getMinTimeout(), resilience.getMaxTimeout(),
+										  resilience.getTimeoutPercentile(), resilience.getTimeoutMultiplier());
+		this.circuitBreaker = new CircuitBreaker(resilience.getSlidingWindowSize(), resilience.getMinimumCalls(),
+												 resilience.getFailureRateThreshold(), resilience.getOpenDuration());
+		this.failOpenPolicies = Set.copyOf(failOpenPolicies);
+		this.staleDecisions = staleDecisions;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public EvaluationExpression execute(String policyName, Map<String, String> context) {
+		return delegate.execute(policyName, context);
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+		return await(policyName, executeMultiAsync(policyName, context));
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context, List<DecisionCache.Key> keys) {
+		return await(policyName, executeMultiAsync(policyName, context, keys));
+	}
+
+	private static List<EvaluationExpression> await(String policyName, CompletableFuture<List<EvaluationExpression>> response) {
+		try {
+			return response.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			response.cancel(true);
+			throw new IllegalStateException("Interrupted while waiting for ABAC decisions of policy '" + policyName + "'", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new IllegalStateException("ABAC policy evaluation failed", e.getCause());
+		}
+	}
+
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+		// Cache keys use the caller's authentication, so they are created before leaving this thread
+		return call(policyName, context, staleDecisions != null ? CachingAbacRestClient.keys(policyName, context) : null);
+	}
+
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context,
+																			List<DecisionCache.Key> keys) {
+		return call(policyName, context, keys);
+	}
+
+	/**
+	 * @param keys cache keys of the context entries, or {@code null} if they are neither needed here nor by the delegate
+	 */
+	private CompletableFuture<List<EvaluationExpression>> call(String policyName, List<Map<String, Object>> context,
+															   List<DecisionCache.Key> keys) {
+
+		if (!circuitBreaker.tryAcquirePermission()) {
+			return CompletableFuture.completedFuture(fallback(policyName, context, keys, FallbackReason.CIRCUIT_OPEN, null));
+		}
+		if (!acquireBulkhead()) {
+			circuitBreaker.onIgnored();
+			return CompletableFuture.completedFuture(fallback(policyName, context, keys, FallbackReason.BULKHEAD_FULL, null));
+		}
+
+		long start = System.nanoTime();
+		// The trial call of a half-open circuit gets the full timeout, so a slow but recovered server can close it
+		long timeoutNanos = circuitBreaker.getState() == CircuitBreaker.State.HALF_OPEN ? latency.maxTimeoutNanos() : latency.timeoutNanos();
+		CompletableFuture<List<EvaluationExpression>> response;
+		try {
+			response = keys != null ? delegate.executeMultiAsync(policyName, context, keys) :
+				delegate.executeMultiAsync(policyName, context);
+		} catch (RuntimeException e) {
+			response = CompletableFuture.failedFuture(e);
+		}
+		// The slot is held until the call itself ends, also after the caller timed out, so abandoned calls still count
+		response.whenComplete((decisions, error) -> bulkhead.release());
+		return response.copy()
+			.orTimeout(timeoutNanos, TimeUnit.NANOSECONDS)
+			.handle((decisions, error) -> {
+				Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+				if (cause == null) {
+					onSuccess();
+					latency.record(System.nanoTime() - start);
+					return decisions;
+				}
+				if (cause instanceof CancellationException cancellation) {
+					// Cancelled rather than answered, which says nothing about the server
+					circuitBreaker.onIgnored();
+					throw cancellation;
+				}
+				if (isClientError(cause)) {
+					// The server answered, so it is available; the request itself is wrong
+					onSuccess();
+					throw cause instanceof RuntimeException runtimeException ? runtimeException : new CompletionException(cause);
+				}
+				if (cause instanceof TimeoutException) {
+					latency.recordTimeout(timeoutNanos);
+				}
+				if (circuitBreaker.onFailure()) {
+					log.warn("ABAC circuit breaker opened after a failed call of policy '{}'; calls are rejected until a trial call succeeds",
+							 policyName, cause);
+				}
+				return fallback(policyName, context, keys, cause instanceof TimeoutException ? FallbackReason.TIMEOUT : FallbackReason.ERROR, cause);
+			});
+	}
+
+	private void onSuccess() {
+		if (circuitBreaker.onSuccess()) {
+			log.info("ABAC circuit breaker closed, the server answered a trial call");
+		}
+	}
+
+	private boolean acquireBulkhead() {
+		try {
+			return bulkhead.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static boolean isClientError(Throwable cause) {
+		return cause instanceof RestClientResponseException responseException && responseException.getStatusCode().is4xxClientError();
+	}
+
+	private List<EvaluationExpression> fallback(String policyName, List<Map<String, Object>> context, List<DecisionCache.Key> keys,
+												FallbackReason reason, Throwable cause) {
+		EvaluationExpression[] cached = keys != null && staleDecisions != null ? staleDecisions.getAllStale(keys) :
+			new EvaluationExpression[context.size()];
+		EvaluationExpression defaultDecision = failOpenPolicies.contains(policyName) ? ALLOW : DENY;
+		List<EvaluationExpression> decisions = new ArrayList<>(context.size());
+		int served = 0;
+		for (EvaluationExpression decision : cached) {
+			if (decision != null) {
+				served++;
+			}
+			decisions.add(decision != null ? decision : defaultDecision);
+		}
+		metrics.recordFallback(policyName, reason.tag);
+		String outcome = defaultDecision == ALLOW ? "allowed" : "denied";
+		if (warningDue()) {
+			log.warn("ABAC decisions of policy '{}' are not available ({}); {} of {} entries served from cache, the rest {}; " +
+						 "{} more fallbacks since the last warning", policyName, reason.description, served, context.size(), outcome,
+					 suppressedWarnings.getAndSet(0), cause);
+		} else {
+			suppressedWarnings.incrementAndGet();
+			log.debug("ABAC decisions of policy '{}' are not available ({}); {} of {} entries served from cache, the rest {}",
+					  policyName, reason.description, served, context.size(), outcome, cause);
+		}
+		return new FallbackDecisions(decisions);
+	}
+
+	// While the server is unavailable every request falls back, so a warning per call would flood the log
+	private boolean warningDue() {
+		long now = System.nanoTime();
+		long next = nextWarning.get();
+		return now - next >= 0 && nextWarning.compareAndSet(next, now + WARNING_INTERVAL_NANOS);
+	}
+
+	/**
+	 * @return {@code true} if the decisions were not made by the ABAC server and must not be cached
+	 */
+	static boolean isFallback(List<EvaluationExpression> decisions) {
+		return decisions instanceof FallbackDecisions;
+	}
+
+	CircuitBreaker.State getCircuitState() {
+		return circuitBreaker.getState();
+	}
+
+	private enum FallbackReason {
+		CIRCUIT_OPEN("circuit_open", "circuit breaker is open"),
+		BULKHEAD_FULL("bulkhead_full", "too many concurrent calls"),
+		TIMEOUT("timeout", "no response in time"),
+		ERROR("error", "call failed");
+
+		private final String tag;
+		private final String description;
+
+		FallbackReason(String tag, String description) {
+			this.tag = tag;
+			this.description = description;
+		}
+	}
+
+	private static final class FallbackDecisions extends AbstractList<EvaluationExpression> implements RandomAccess {
+		private final List<EvaluationExpression> decisions;
+
+		private FallbackDecisions(List<EvaluationExpression> decisions) {
+			this.decisions = decisions;
+		}
+
+		@Override
+		public EvaluationExpression get(int index) {
+			return decisions.get(index);
+		}
+
+		@Override
+		public int size() {
+			return decisions.size();
+		}
+	}
+}
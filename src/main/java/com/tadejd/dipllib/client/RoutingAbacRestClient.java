@@ -0,0 +1,108 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.BooleanEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link AbacRestClient} that evaluates policies with local rules in-process and sends all other policies to the
+ * remote client. For local policies with {@code remoteFallback}, entries the local rules deny are sent to the remote
+ * client, whose decisions replace the local ones; entries the local rules allow never leave the process.
+ *
+ * @author Tadej Delopst
+ */
+public class RoutingAbacRestClient implements AbacRestClient {
+	private final LocalAbacRestClient local;
+	private final AbacRestClient remote;
+
+	public RoutingAbacRestClient(LocalAbacRestClient local, AbacRestClient remote) {
+		this.local = local;
+		this.remote = remote;
+	}
+
+	@Override
+	public EvaluationExpression execute(String policyName, Map<String, String> context) {
+		if (!local.supports(policyName)) {
+			return remote.execute(policyName, context);
+		}
+		EvaluationExpression decision = local.execute(policyName, context);
+		return local.fallsBackToRemote(policyName) && !isAllowed(decision) ? remote.execute(policyName, context) : decision;
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+		if (!local.supports(policyName)) {
+			return remote.executeMulti(policyName, context);
+		}
+		List<EvaluationExpression> decisions = local.executeMulti(policyName, context);
+		List<Integer> denied = denied(policyName, decisions);
+		if (denied.isEmpty()) {
+			return decisions;
+		}
+		return merge(policyName, decisions, denied, remote.executeMulti(policyName, entries(context, denied)));
+	}
+
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+		if (!local.supports(policyName)) {
+			return remote.executeMultiAsync(policyName, context);
+		}
+		List<EvaluationExpression> decisions;
+		try {
+			decisions = local.executeMulti(policyName, context);
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		List<Integer> denied = denied(policyName, decisions);
+		if (denied.isEmpty()) {
+			return CompletableFuture.completedFuture(decisions);
+		}
+		return remote.executeMultiAsync(policyName, entries(context, denied))
+			.thenApply(remoteDecisions -> merge(policyName, decisions, denied, remoteDecisions));
+	}
+
+	/**
+	 * @return the positions of the entries to send to the remote client, none unless the policy falls back to it
+	 */
+	private List<Integer> denied(String policyName, List<EvaluationExpression> decisions) {
+		if (!local.fallsBackToRemote(policyName)) {
+			return List.of();
+		}
+		List<Integer> denied = new ArrayList<>();
+		for (int i = 0; i < decisions.size(); i++) {
+			if (!isAllowed(decisions.get(i))) {
+				denied.add(i);
+			}
+		}
+		return denied;
+	}
+
+	private static List<Map<String, Object>> entries(List<Map<String, Object>> context, List<Integer> positions) {
+		List<Map<String, Object>> entries = new ArrayList<>(positions.size());
+		for (int position : positions) {
+			entries.add(context.get(position));
+		}
+		return entries;
+	}
+
+	private static List<EvaluationExpression> merge(String policyName, List<EvaluationExpression> decisions, List<Integer> positions,
+													List<EvaluationExpression> remoteDecisions) {
+		if (remoteDecisions == null || remoteDecisions.size() != positions.size()) {
+			throw new IllegalStateException("ABAC server returned " + (remoteDecisions == null ? 0 : remoteDecisions.size()) +
+												" decisions for " + positions.size() + " context entries of policy '" + policyName + "'");
+		}
+		List<EvaluationExpression> merged = new ArrayList<>(decisions);
+		for (int i = 0; i < positions.size(); i++) {
+			merged.set(positions.get(i), remoteDecisions.get(i));
+		}
+		return merged;
+	}
+
+	private static boolean isAllowed(EvaluationExpression decision) {
+		return decision instanceof BooleanEvaluationExpression booleanDecision && booleanDecision.getBooleanValue();
+	}
+}
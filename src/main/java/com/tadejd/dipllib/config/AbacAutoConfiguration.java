@@ -8,14 +8,31 @@ import ca.uhn.fhir.rest.server.util.ISearchParamRegistry;
 import com.tadejd.dipllib.AbacInterceptor;
 import com.tadejd.dipllib.client.AbacRestClient;
 import com.tadejd.dipllib.client.AbacRestClientImpl;
+import com.tadejd.dipllib.client.BatchingAbacRestClient;
+import com.tadejd.dipllib.client.CachingAbacRestClient;
+import com.tadejd.dipllib.client.CoalescingAbacRestClient;
+import com.tadejd.dipllib.client.DecisionCache;
+import com.tadejd.dipllib.client.LocalAbacRestClient;
+import com.tadejd.dipllib.client.MeteredAbacRestClient;
+import com.tadejd.dipllib.client.ResilientAbacRestClient;
+import com.tadejd.dipllib.client.RoutingAbacRestClient;
+import com.tadejd.dipllib.metrics.AbacMetrics;
+import com.tadejd.dipllib.metrics.MicrometerAbacMetrics;
 import com.tadejd.dipllib.rule.AbacRuleManager;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * @author Tadej Delopst
@@ -34,14 +51,16 @@ public class AbacAutoConfiguration {
 			FhirContext fhirContext,
 			AbacRuleManager abacRuleManger,
 			AbacRestClient abacRestClient,
-			RestfulServer restfulServer) {
+			RestfulServer restfulServer,
+			ObjectProvider<AbacMetrics> abacMetrics) {
 		AbacInterceptor abacInterceptor = new AbacInterceptor(
 				abacProperties,
 				resourceDaoList,
 				abacRuleManger,
 				searchParamExtractor,
 				fhirContext,
-				abacRestClient
+				abacRestClient,
+				abacMetrics.getIfAvailable(() -> AbacMetrics.NOOP)
 		);
 		restfulServer.registerInterceptor(abacInterceptor);
 		return abacInterceptor;
@@ -49,8 +68,48 @@ public class AbacAutoConfiguration {
 
 	@Bean
 	@ConditionalOnMissingBean
-	public AbacRestClient abacRestClient(AbacProperties abacProperties) {
-		return new AbacRestClientImpl(abacProperties.getUrl());
+	public AbacRestClient abacRestClient(AbacProperties abacProperties, ObjectProvider<DecisionCache> decisionCache,
+										 ObjectProvider<AbacMetrics> abacMetrics) {
+		AbacMetrics metrics = abacMetrics.getIfAvailable(() -> AbacMetrics.NOOP);
+		AbacRestClient client = new AbacRestClientImpl(abacProperties.getUrl(), abacProperties.getHttp());
+		if (metrics != AbacMetrics.NOOP) {
+			client = new MeteredAbacRestClient(client, metrics);
+		}
+		if (abacProperties.getHttp().getMaxBatchSize() > 0) {
+			client = new BatchingAbacRestClient(client, abacProperties.getHttp().getMaxBatchSize(),
+												abacProperties.getHttp().getMaxInFlightBatches());
+		}
+		DecisionCache cache = decisionCache.getIfAvailable();
+		AbacProperties.Resilience resilience = abacProperties.getResilience();
+		if (resilience.isEnabled()) {
+			// Below the cache and coalescing, so only calls that reach the ABAC server are guarded and measured
+			Set<String> failOpenPolicies = abacProperties.getPolicies() == null ? Set.of() : abacProperties.getPolicies().stream()
+				.filter(AbacProperties.PolicyProperties::isFailOpen)
+				.map(AbacProperties.PolicyProperties::getName)
+				.collect(Collectors.toSet());
+			client = new ResilientAbacRestClient(client, resilience, failOpenPolicies,
+												 resilience.getStaleDecisions().isZero() ? null : cache, metrics);
+		}
+		if (abacProperties.getHttp().isCoalesceRequests()) {
+			// Below the cache, so only entries missing from it are shared
+			client = new CoalescingAbacRestClient(client, abacProperties.getHttp().getReadTimeout(), metrics);
+		}
+		if (cache != null) {
+			client = new CachingAbacRestClient(client, cache, metrics);
+		}
+
+		// Policies with local rules never reach the ABAC server
+		LocalAbacRestClient localClient = LocalAbacRestClient.fromProperties(abacProperties);
+		return localClient.hasPolicies() ? new RoutingAbacRestClient(localClient, client) : client;
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	@ConditionalOnProperty(prefix = "abac.cache", name = "enabled", havingValue = "true")
+	public DecisionCache decisionCache(AbacProperties abacProperties) {
+		AbacProperties.Resilience resilience = abacProperties.getResilience();
+		return new DecisionCache(abacProperties.getCache().getTtl(), abacProperties.getCache().getMaxSize(),
+								 resilience.isEnabled() ? resilience.getStaleDecisions() : Duration.ZERO);
 	}
 
 	@Bean
@@ -58,4 +117,20 @@ public class AbacAutoConfiguration {
 	public AbacRuleManager abacRuleManager(ISearchParamRegistry searchParamRegistry) {
 		return new com.tadejd.dipllib.rule.AbacRuleManager(searchParamRegistry);
 	}
+
+	/**
+	 * Publishes ABAC metrics when Micrometer is on the classpath and the application has a {@link MeterRegistry}.
+	 * The registry is looked up lazily, since it may be created by an auto-configuration that runs after this one.
+	 */
+	@Configuration
+	@ConditionalOnClass(MeterRegistry.class)
+	static class AbacMetricsConfiguration {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public AbacMetrics abacMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+			MeterRegistry registry = meterRegistry.getIfAvailable();
+			return registry != null ? new MicrometerAbacMetrics(registry) : AbacMetrics.NOOP;
+		}
+	}
 }
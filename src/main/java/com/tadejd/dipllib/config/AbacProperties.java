@@ -2,12 +2,21 @@ package com.tadejd.dipllib.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 
 @ConfigurationProperties(prefix = "abac")
 public class AbacProperties {
 	private String url;
 	private List<PolicyProperties> policies;
+	private Cache cache = new Cache();
+	private Cache referenceCache = new Cache();
+	private Cache valueCache = new Cache();
+	private Evaluation evaluation = new Evaluation();
+	private Http http = new Http();
+	private Local local = new Local();
+	private Resilience resilience = new Resilience();
 
 	public String getUrl() {
 		return url;
@@ -25,11 +34,450 @@ public class AbacProperties {
 		this.policies = policies;
 	}
 
+	public Cache getCache() {
+		return cache;
+	}
+
+	public void setCache(Cache cache) {
+		this.cache = cache;
+	}
+
+	public Cache getReferenceCache() {
+		return referenceCache;
+	}
+
+	public void setReferenceCache(Cache referenceCache) {
+		this.referenceCache = referenceCache;
+	}
+
+	public Cache getValueCache() {
+		return valueCache;
+	}
+
+	public void setValueCache(Cache valueCache) {
+		this.valueCache = valueCache;
+	}
+
+	public Evaluation getEvaluation() {
+		return evaluation;
+	}
+
+	public void setEvaluation(Evaluation evaluation) {
+		this.evaluation = evaluation;
+	}
+
+	public Http getHttp() {
+		return http;
+	}
+
+	public void setHttp(Http http) {
+		this.http = http;
+	}
+
+	public Local getLocal() {
+		return local;
+	}
+
+	public void setLocal(Local local) {
+		this.local = local;
+	}
+
+	public Resilience getResilience() {
+		return resilience;
+	}
+
+	public void setResilience(Resilience resilience) {
+		this.resilience = resilience;
+	}
+
+	public static class Http {
+		private Duration connectTimeout = Duration.ofSeconds(2);
+		private Duration readTimeout = Duration.ofSeconds(10);
+		private boolean http2 = true;
+		private int maxBatchSize = 0;
+		private int maxInFlightBatches = 4;
+		private boolean coalesceRequests = false;
+
+		public Duration getConnectTimeout() {
+			return connectTimeout;
+		}
+
+		public void setConnectTimeout(Duration connectTimeout) {
+			this.connectTimeout = connectTimeout;
+		}
+
+		public Duration getReadTimeout() {
+			return readTimeout;
+		}
+
+		public void setReadTimeout(Duration readTimeout) {
+			this.readTimeout = readTimeout;
+		}
+
+		public boolean isHttp2() {
+			return http2;
+		}
+
+		public void setHttp2(boolean http2) {
+			this.http2 = http2;
+		}
+
+		public int getMaxBatchSize() {
+			return maxBatchSize;
+		}
+
+		public void setMaxBatchSize(int maxBatchSize) {
+			this.maxBatchSize = maxBatchSize;
+		}
+
+		public int getMaxInFlightBatches() {
+			return maxInFlightBatches;
+		}
+
+		public void setMaxInFlightBatches(int maxInFlightBatches) {
+			this.maxInFlightBatches = maxInFlightBatches;
+		}
+
+		public boolean isCoalesceRequests() {
+			return coalesceRequests;
+		}
+
+		public void setCoalesceRequests(boolean coalesceRequests) {
+			this.coalesceRequests = coalesceRequests;
+		}
+	}
+
+	public static class Evaluation {
+		private boolean concurrentPolicies = false;
+		private int policyThreads = 8;
+		private int parallelExtractionThreshold = 0;
+		private int extractionParallelism = Runtime.getRuntime().availableProcessors();
+		private int chunkSize = 0;
+		private long compiledExpressionWeight = 100000;
+		private boolean denyFast = false;
+		private boolean costBasedOrdering = true;
+
+		public boolean isConcurrentPolicies() {
+			return concurrentPolicies;
+		}
+
+		public void setConcurrentPolicies(boolean concurrentPolicies) {
+			this.concurrentPolicies = concurrentPolicies;
+		}
+
+		public boolean isDenyFast() {
+			return denyFast;
+		}
+
+		public void setDenyFast(boolean denyFast) {
+			this.denyFast = denyFast;
+		}
+
+		public boolean isCostBasedOrdering() {
+			return costBasedOrdering;
+		}
+
+		public void setCostBasedOrdering(boolean costBasedOrdering) {
+			this.costBasedOrdering = costBasedOrdering;
+		}
+
+		public int getPolicyThreads() {
+			return policyThreads;
+		}
+
+		public void setPolicyThreads(int policyThreads) {
+			this.policyThreads = policyThreads;
+		}
+
+		public int getParallelExtractionThreshold() {
+			return parallelExtractionThreshold;
+		}
+
+		public void setParallelExtractionThreshold(int parallelExtractionThreshold) {
+			this.parallelExtractionThreshold = parallelExtractionThreshold;
+		}
+
+		public int getExtractionParallelism() {
+			return extractionParallelism;
+		}
+
+		public void setExtractionParallelism(int extractionParallelism) {
+			this.extractionParallelism = extractionParallelism;
+		}
+
+		public int getChunkSize() {
+			return chunkSize;
+		}
+
+		public void setChunkSize(int chunkSize) {
+			this.chunkSize = chunkSize;
+		}
+
+		public long getCompiledExpressionWeight() {
+			return compiledExpressionWeight;
+		}
+
+		public void setCompiledExpressionWeight(long compiledExpressionWeight) {
+			this.compiledExpressionWeight = compiledExpressionWeight;
+		}
+	}
+
+	public static class Cache {
+		private boolean enabled = false;
+		private Duration ttl = Duration.ofSeconds(60);
+		private int maxSize = 10000;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public Duration getTtl() {
+			return ttl;
+		}
+
+		public void setTtl(Duration ttl) {
+			this.ttl = ttl;
+		}
+
+		public int getMaxSize() {
+			return maxSize;
+		}
+
+		public void setMaxSize(int maxSize) {
+			this.maxSize = maxSize;
+		}
+	}
+
+	/**
+	 * Protection of request threads against a slow or failing ABAC server.
+	 */
+	public static class Resilience {
+		private boolean enabled = false;
+		// Bulkhead: calls to the ABAC server in flight at once, and how long a call waits for a free slot
+		private int maxConcurrentCalls = 32;
+		private Duration maxWait = Duration.ofMillis(50);
+		// Adaptive timeout: a multiple of the observed latency percentile, within the bounds
+		private Duration minTimeout = Duration.ofMillis(200);
+		private Duration maxTimeout = Duration.ofSeconds(10);
+		private double timeoutPercentile = 0.99;
+		private double timeoutMultiplier = 2.0;
+		// Circuit breaker: opens when the failure rate of the last calls reaches the threshold
+		private int slidingWindowSize = 100;
+		private int minimumCalls = 20;
+		private double failureRateThreshold = 0.5;
+		private Duration openDuration = Duration.ofSeconds(30);
+		// How long after expiry cached decisions may still be served while the ABAC server is unavailable (0 disables it)
+		private Duration staleDecisions = Duration.ZERO;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getMaxConcurrentCalls() {
+			return maxConcurrentCalls;
+		}
+
+		public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+			this.maxConcurrentCalls = maxConcurrentCalls;
+		}
+
+		public Duration getMaxWait() {
+			return maxWait;
+		}
+
+		public void setMaxWait(Duration maxWait) {
+			this.maxWait = maxWait;
+		}
+
+		public Duration getMinTimeout() {
+			return minTimeout;
+		}
+
+		public void setMinTimeout(Duration minTimeout) {
+			this.minTimeout = minTimeout;
+		}
+
+		public Duration getMaxTimeout() {
+			return maxTimeout;
+		}
+
+		public void setMaxTimeout(Duration maxTimeout) {
+			this.maxTimeout = maxTimeout;
+		}
+
+		public double getTimeoutPercentile() {
+			return timeoutPercentile;
+		}
+
+		public void setTimeoutPercentile(double timeoutPercentile) {
+			this.timeoutPercentile = timeoutPercentile;
+		}
+
+		public double getTimeoutMultiplier() {
+			return timeoutMultiplier;
+		}
+
+		public void setTimeoutMultiplier(double timeoutMultiplier) {
+			this.timeoutMultiplier = timeoutMultiplier;
+		}
+
+		public int getSlidingWindowSize() {
+			return slidingWindowSize;
+		}
+
+		public void setSlidingWindowSize(int slidingWindowSize) {
+			this.slidingWindowSize = slidingWindowSize;
+		}
+
+		public int getMinimumCalls() {
+			return minimumCalls;
+		}
+
+		public void setMinimumCalls(int minimumCalls) {
+			this.minimumCalls = minimumCalls;
+		}
+
+		public double getFailureRateThreshold() {
+			return failureRateThreshold;
+		}
+
+		public void setFailureRateThreshold(double failureRateThreshold) {
+			this.failureRateThreshold = failureRateThreshold;
+		}
+
+		public Duration getOpenDuration() {
+			return openDuration;
+		}
+
+		public void setOpenDuration(Duration openDuration) {
+			this.openDuration = openDuration;
+		}
+
+		public Duration getStaleDecisions() {
+			return staleDecisions;
+		}
+
+		public void setStaleDecisions(Duration staleDecisions) {
+			this.staleDecisions = staleDecisions;
+		}
+	}
+
+	/**
+	 * Rules of policies evaluated in-process, by policy name, for policies with {@code engine: local}.
+	 */
+	public static class Local {
+		// JSON file with rules by policy name, a file path or classpath: location
+		private String rulesFile;
+
+		public String getRulesFile() {
+			return rulesFile;
+		}
+
+		public void setRulesFile(String rulesFile) {
+			this.rulesFile = rulesFile;
+		}
+	}
+
+	/**
+	 * A policy evaluated in-process. The policy allows a context entry if all (or any) of its conditions hold.
+	 */
+	public static class LocalRules {
+		private Match match = Match.ALL;
+		private List<Condition> conditions = new ArrayList<>();
+		// Entries the rules deny are sent to the ABAC server, which makes the final decision
+		private boolean remoteFallback = false;
+
+		public Match getMatch() {
+			return match;
+		}
+
+		public void setMatch(Match match) {
+			this.match = match;
+		}
+
+		public List<Condition> getConditions() {
+			return conditions;
+		}
+
+		public void setConditions(List<Condition> conditions) {
+			this.conditions = conditions;
+		}
+
+		public boolean isRemoteFallback() {
+			return remoteFallback;
+		}
+
+		public void setRemoteFallback(boolean remoteFallback) {
+			this.remoteFallback = remoteFallback;
+		}
+
+		public enum Match {
+			ALL, ANY
+		}
+
+		/**
+		 * Compares a context attribute with the given values. Besides the attributes of the context entry,
+		 * {@code user} is the authenticated user name and {@code roles} are the user's granted authorities; these two
+		 * always come from the authentication, never from the context entry.
+		 */
+		public static class Condition {
+			private String attribute;
+			private Operator operator = Operator.EQUALS;
+			private List<String> values = new ArrayList<>();
+
+			public String getAttribute() {
+				return attribute;
+			}
+
+			public void setAttribute(String attribute) {
+				this.attribute = attribute;
+			}
+
+			public Operator getOperator() {
+				return operator;
+			}
+
+			public void setOperator(Operator operator) {
+				this.operator = operator;
+			}
+
+			public List<String> getValues() {
+				return values;
+			}
+
+			public void setValues(List<String> values) {
+				this.values = values;
+			}
+		}
+
+		public enum Operator {
+			// Any value of the attribute is one of the values
+			EQUALS,
+			// No value of the attribute is one of the values
+			NOT_EQUALS,
+			PRESENT,
+			ABSENT
+		}
+	}
+
 	public static class PolicyProperties {
 		private String name;
 		private String type;
 		private String resourceType;
 		private String operations;
+		private boolean searchFilter = false;
+		private Engine engine = Engine.REMOTE;
+		// Allow instead of deny when the ABAC server cannot be reached and resilience is enabled
+		private boolean failOpen = false;
+		private LocalRules rules;
 		private List<Mapping> mappings; // Add mappings list
 
 		public String getName() {
@@ -64,6 +512,38 @@ public class AbacProperties {
 			this.operations = operations;
 		}
 
+		public boolean isSearchFilter() {
+			return searchFilter;
+		}
+
+		public void setSearchFilter(boolean searchFilter) {
+			this.searchFilter = searchFilter;
+		}
+
+		public Engine getEngine() {
+			return engine;
+		}
+
+		public void setEngine(Engine engine) {
+			this.engine = engine;
+		}
+
+		public boolean isFailOpen() {
+			return failOpen;
+		}
+
+		public void setFailOpen(boolean failOpen) {
+			this.failOpen = failOpen;
+		}
+
+		public LocalRules getRules() {
+			return rules;
+		}
+
+		public void setRules(LocalRules rules) {
+			this.rules = rules;
+		}
+
 		public List<Mapping> getMappings() {
 			return mappings;
 		}
@@ -72,6 +552,13 @@ public class AbacProperties {
 			this.mappings = mappings;
 		}
 
+		public enum Engine {
+			// Decisions are requested from the ABAC server
+			REMOTE,
+			// Decisions are evaluated in-process from the policy's rules
+			LOCAL
+		}
+
 		// Nested class for Mapping
 		public static class Mapping {
 			private String contextAttribute;
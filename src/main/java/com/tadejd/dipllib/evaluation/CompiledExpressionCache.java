@@ -0,0 +1,158 @@
+package com.tadejd.dipllib.evaluation;
+
+import care.better.abac.policy.execute.evaluation.*;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Predicates compiled by {@link ExpressionEvaluator#compile}, shared between equal decision trees of the same policy.
+ * Trees are keyed as they are: the key hashes the tree in one pass without copying it, and a tree that is the same
+ * instance as a cached one (e.g. a decision served from the decision cache) is matched without walking it. The cache is
+ * bounded by weight, the number of nodes and values of the cached trees, and evicts the least recently used trees
+ * first. Trees heavier than the whole cache are compiled but not cached.
+ *
+ * @author Tadej Delopst
+ */
+public class CompiledExpressionCache {
+	private final long maxWeight;
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long weight;
+
+	public CompiledExpressionCache(long maxWeight) {
+		if (maxWeight <= 0) {
+			throw new IllegalArgumentException("ABAC compiled expression cache weight must be positive, was " + maxWeight);
+		}
+		this.maxWeight = maxWeight;
+	}
+
+	public Predicate<ExpressionContext> compile(EvaluationExpression expression, String policyName) {
+		Key key = new Key(policyName, expression, hash(expression));
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				return entry.predicate();
+			}
+		}
+
+		// Compiled outside the lock; a tree compiled twice concurrently is cached once
+		Predicate<ExpressionContext> predicate = ExpressionEvaluator.compile(expression, policyName);
+		long expressionWeight = weight(expression);
+		if (expressionWeight > maxWeight) {
+			return predicate;
+		}
+		synchronized (this) {
+			Entry previous = entries.put(key, new Entry(predicate, expressionWeight));
+			if (previous != null) {
+				weight -= previous.weight();
+			}
+			weight += expressionWeight;
+			var eldest = entries.values().iterator();
+			while (weight > maxWeight) {
+				weight -= eldest.next().weight();
+				eldest.remove();
+			}
+		}
+		return predicate;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long weight() {
+		return weight;
+	}
+
+	private static int hash(EvaluationExpression expression) {
+		if (expression instanceof BooleanEvaluationExpression booleanExpr) {
+			return Boolean.hashCode(booleanExpr.getBooleanValue());
+		} else if (expression instanceof BooleanOperationEvaluationExpression boolExpr) {
+			return 31 * (31 * boolExpr.getBooleanOperation().hashCode() + hash(boolExpr.getLeftChild())) + hash(boolExpr.getRightChild());
+		} else if (expression instanceof ResultSetEvaluationExpression resultSetExpr) {
+			return 17 + unorderedHash(resultSetExpr.getExternalIds());
+		} else if (expression instanceof ValueSetEvaluationExpression valueSetExpr) {
+			return 31 * Objects.hashCode(valueSetExpr.getPath()) + unorderedHash(valueSetExpr.getValues());
+		}
+		return Objects.hashCode(expression);
+	}
+
+	private static int unorderedHash(Collection<String> values) {
+		// Sum of the element hashes, so the iteration order of the collection does not matter
+		int hash = 0;
+		if (values != null) {
+			for (String value : values) {
+				hash += Objects.hashCode(value);
+			}
+		}
+		return hash;
+	}
+
+	private static boolean equal(EvaluationExpression a, EvaluationExpression b) {
+		if (a == b) {
+			return true;
+		}
+		if (a instanceof BooleanEvaluationExpression booleanA && b instanceof BooleanEvaluationExpression booleanB) {
+			return booleanA.getBooleanValue() == booleanB.getBooleanValue();
+		} else if (a instanceof BooleanOperationEvaluationExpression boolA && b instanceof BooleanOperationEvaluationExpression boolB) {
+			return boolA.getBooleanOperation() == boolB.getBooleanOperation() &&
+				equal(boolA.getLeftChild(), boolB.getLeftChild()) &&
+				equal(boolA.getRightChild(), boolB.getRightChild());
+		} else if (a instanceof ResultSetEvaluationExpression resultSetA && b instanceof ResultSetEvaluationExpression resultSetB) {
+			return sameValues(resultSetA.getExternalIds(), resultSetB.getExternalIds());
+		} else if (a instanceof ValueSetEvaluationExpression valueSetA && b instanceof ValueSetEvaluationExpression valueSetB) {
+			return Objects.equals(valueSetA.getPath(), valueSetB.getPath()) && sameValues(valueSetA.getValues(), valueSetB.getValues());
+		}
+		return Objects.equals(a, b);
+	}
+
+	private static boolean sameValues(Collection<String> a, Collection<String> b) {
+		if (a == b) {
+			return true;
+		}
+		if (a == null || b == null) {
+			return false;
+		}
+		return a.size() == b.size() && a.containsAll(b) && b.containsAll(a);
+	}
+
+	private static long weight(EvaluationExpression expression) {
+		if (expression instanceof BooleanOperationEvaluationExpression boolExpr) {
+			return 1 + weight(boolExpr.getLeftChild()) + weight(boolExpr.getRightChild());
+		} else if (expression instanceof ResultSetEvaluationExpression resultSetExpr) {
+			return 1 + (resultSetExpr.getExternalIds() != null ? resultSetExpr.getExternalIds().size() : 0);
+		} else if (expression instanceof ValueSetEvaluationExpression valueSetExpr) {
+			return 1 + (valueSetExpr.getValues() != null ? valueSetExpr.getValues().size() : 0);
+		}
+		return 1;
+	}
+
+	private static final class Key {
+		private final String policyName;
+		private final EvaluationExpression expression;
+		private final int hash;
+
+		private Key(String policyName, EvaluationExpression expression, int hash) {
+			this.policyName = policyName;
+			this.expression = expression;
+			this.hash = 31 * Objects.hashCode(policyName) + hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key other && hash == other.hash && Objects.equals(policyName, other.policyName) &&
+				equal(expression, other.expression);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private record Entry(Predicate<ExpressionContext> predicate, long weight) {
+	}
+}
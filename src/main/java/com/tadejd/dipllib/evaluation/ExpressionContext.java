@@ -5,7 +5,6 @@ import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
 import ca.uhn.fhir.model.api.IResource;
 import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
 import care.better.abac.policy.execute.evaluation.ValueSetEvaluationExpression;
-import org.antlr.v4.runtime.misc.Triple;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r5.model.Resource;
 
@@ -23,17 +22,25 @@ public class ExpressionContext {
 	private final Supplier<IBaseResource> existingResource;
 	private final Supplier<Map<String, RuntimeSearchParam>> activeSearchParamsSupplier;
 	private final ISearchParamExtractor extractor;
+	private final ExtractedValueCache sharedValues;
+	// Values extracted during the request, shared with the entry views of the request context
+	private final Map<ValueKey, List<String>> extractedValues;
+	private final boolean entryView;
+	private IBaseResource entryResource;
 
-	// Add a dynamic attributes map
-	private final Map<String, Object> attributes = new HashMap<>();
+	// Add a dynamic attributes map, allocated on first use
+	private Map<String, Object> attributes;
 
 	// Add methods for dynamic attributes
 	public void put(String key, Object value) {
+		if (attributes == null) {
+			attributes = new HashMap<>();
+		}
 		attributes.put(key, value);
 	}
 
 	public Object get(String key) {
-		return attributes.get(key);
+		return attributes != null ? attributes.get(key) : null;
 	}
 
 	public ExpressionContext(
@@ -42,15 +49,68 @@ public class ExpressionContext {
 		Supplier<IBaseResource> existingResource,
 		Supplier<Map<String, RuntimeSearchParam>> activeSearchParamsSupplier,
 		ISearchParamExtractor extractor) {
+		this(operationType, newResource, existingResource, activeSearchParamsSupplier, extractor, null);
+	}
+
+	/**
+	 * @param sharedValues values extracted from stored resources shared across requests, or {@code null} to reuse
+	 *                     extracted values only within this context and its entry views. Not used for CREATE, UPDATE
+	 *                     and PATCH, whose resources may come from the request body with a client-supplied version.
+	 */
+	public ExpressionContext(
+		RestOperationTypeEnum operationType,
+		Supplier<IBaseResource> newResource,
+		Supplier<IBaseResource> existingResource,
+		Supplier<Map<String, RuntimeSearchParam>> activeSearchParamsSupplier,
+		ISearchParamExtractor extractor,
+		ExtractedValueCache sharedValues) {
 		this.operationType = operationType;
 		this.newResource = newResource;
 		this.existingResource = existingResource;
 		this.activeSearchParamsSupplier = activeSearchParamsSupplier;
 		this.extractor = extractor;
+		this.sharedValues = hasRequestBody(operationType) ? null : sharedValues;
+		this.extractedValues = new HashMap<>();
+		this.entryView = false;
 	}
+
+	private ExpressionContext(ExpressionContext requestContext) {
+		this.operationType = requestContext.operationType;
+		this.newResource = null;
+		this.existingResource = null;
+		this.activeSearchParamsSupplier = requestContext.activeSearchParamsSupplier;
+		this.extractor = requestContext.extractor;
+		this.sharedValues = requestContext.sharedValues;
+		this.extractedValues = requestContext.extractedValues;
+		this.entryView = true;
+	}
+
+	/**
+	 * Creates a view of this context that evaluates against a resource already in memory, set with
+	 * {@link #setEntryResource}, instead of loading it. The view shares the operation, active search parameters and
+	 * extractor of this context, and is meant to be reused for all entries of a response on a single thread.
+	 */
+	public ExpressionContext entryView() {
+		return new ExpressionContext(this);
+	}
+
+	public ExpressionContext setEntryResource(IBaseResource resource) {
+		if (!entryView) {
+			throw new IllegalStateException("Entry resource can only be set on an entry view");
+		}
+		this.entryResource = resource;
+		return this;
+	}
+
+	/**
+	 * @return the id of the resource the decision applies to, or {@code null} for CREATE, also on entry views, as the
+	 * resource is not stored yet and any id it carries is supplied by the client
+	 */
 	public String getId() {
 		if (operationType == RestOperationTypeEnum.CREATE) {
 			return null;
+		} else if (entryView) {
+			return extractId(entryResource);
 		} else {
 			return extractId(existingResource.get());
 		}
@@ -62,39 +122,83 @@ public class ExpressionContext {
 		return resource.getIdElement().getIdPart();
 	}
 
+	private static boolean hasRequestBody(RestOperationTypeEnum operationType) {
+		return operationType == RestOperationTypeEnum.CREATE ||
+			operationType == RestOperationTypeEnum.UPDATE ||
+			operationType == RestOperationTypeEnum.PATCH;
+	}
+
 	public boolean pathDataEquals(String policyName, ValueSetEvaluationExpression expression) {
-		IBaseResource resource = (operationType == RestOperationTypeEnum.CREATE)
+		return ExpressionEvaluator.compile(expression, policyName).test(this);
+	}
+
+	/**
+	 * @return the resource the decision applies to, the entry resource of an entry view, the new resource for CREATE
+	 * and the existing one otherwise
+	 */
+	public IBaseResource getTargetResource() {
+		if (entryView) {
+			return entryResource;
+		}
+		return (operationType == RestOperationTypeEnum.CREATE)
 			? newResource.get()
 			: existingResource.get();
+	}
+
+	public Map<String, RuntimeSearchParam> getActiveSearchParams() {
+		return activeSearchParamsSupplier.get();
+	}
 
-		if (resource == null) {
-			return false;
+	/**
+	 * Extracts the values of the search parameter from the target resource. Values are extracted once per resource
+	 * and search parameter during the request, and once per resource version if a shared cache is configured.
+	 */
+	public List<String> extractValues(RuntimeSearchParam searchParam) {
+		IBaseResource resource = getTargetResource();
+		ValueKey key = new ValueKey(resource, searchParam);
+		List<String> values = extractedValues.get(key);
+		if (values != null) {
+			return values;
 		}
 
-		Triple<String, String, String> pathComponents = ExpressionEvaluator.extractAndValidateExpressionPath(expression, policyName);
-		String resourceName = pathComponents.a;
-		String searchParameterName = pathComponents.b;
+		ExtractedValueCache.Key sharedKey = sharedValues != null ? ExtractedValueCache.key(resource, searchParam) : null;
+		if (sharedKey != null) {
+			values = sharedValues.get(sharedKey);
+		}
+		if (values == null) {
+			values = extractor.extractParamValuesAsStrings(searchParam, resource);
+			if (sharedKey != null) {
+				sharedValues.put(sharedKey, values);
+			}
+		}
+		extractedValues.put(key, values);
+		return values;
+	}
 
-		String resourceType;
+	public static String getResourceType(IBaseResource resource) {
 		if (resource instanceof IResource) {
-			resourceType = ((IResource) resource).getResourceName();
+			return ((IResource) resource).getResourceName();
+		} else if (resource instanceof org.hl7.fhir.r4.model.Resource) {
+			return ((org.hl7.fhir.r4.model.Resource) resource).getResourceType().name();
 		} else if (resource instanceof Resource) {
-			resourceType = ((Resource) resource).getResourceType().name();
+			return ((Resource) resource).getResourceType().name();
 		} else {
 			throw new IllegalStateException("Unsupported version of FHIR!");
 		}
+	}
 
-		if (!resourceType.equals(resourceName)) {
-			return true;
+	/**
+	 * Identifies the resource instance rather than its content, as resources of a request may have no id or version.
+	 */
+	private record ValueKey(IBaseResource resource, RuntimeSearchParam searchParam) {
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof ValueKey other && resource == other.resource && searchParam == other.searchParam;
 		}
 
-		List<String> values = expression.getValues().stream().toList();
-
-		RuntimeSearchParam runtimeSearchParam = ExpressionEvaluator.validateAndGetSearchParameter(
-			activeSearchParamsSupplier.get(), searchParameterName, resourceName, policyName);
-
-		List<String> extractedValues = extractor.extractParamValuesAsStrings(runtimeSearchParam, resource);
-
-		return extractedValues.stream().anyMatch(values::contains);
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(resource) + System.identityHashCode(searchParam);
+		}
 	}
 }
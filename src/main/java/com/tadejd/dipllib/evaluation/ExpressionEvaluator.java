@@ -3,8 +3,11 @@ package com.tadejd.dipllib.evaluation;
 import ca.uhn.fhir.context.RuntimeSearchParam;
 import care.better.abac.policy.execute.evaluation.*;
 import org.antlr.v4.runtime.misc.Triple;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static org.hl7.fhir.instance.model.api.IAnyResource.SP_RES_ID;
@@ -13,44 +16,58 @@ import static org.hl7.fhir.instance.model.api.IAnyResource.SP_RES_ID;
  * @author Tadej Delopst
  */
 public class ExpressionEvaluator {
+	private static final Predicate<ExpressionContext> ALLOW = context -> true;
+	private static final Predicate<ExpressionContext> DENY = context -> false;
 
 	private ExpressionEvaluator() {
 		// Private constructor to prevent instantiation
 	}
 
 	public static boolean evaluate(EvaluationExpression expression, ExpressionContext context, String policyName) {
-		return evaluateNode(expression, context, policyName);
+		return compile(expression, policyName).test(context);
 	}
 
-	private static boolean evaluateNode(EvaluationExpression expression, ExpressionContext context, String policyName) {
-		if (expression instanceof BooleanEvaluationExpression) {
-			return ((BooleanEvaluationExpression) expression).getBooleanValue();
+	/**
+	 * Compiles a decision tree into a predicate that can be tested against many contexts. ValueSet paths are split
+	 * once, and the value and id collections of the tree are used as they are. Use a {@link CompiledExpressionCache}
+	 * to share predicates between equal trees.
+	 */
+	public static Predicate<ExpressionContext> compile(EvaluationExpression expression, String policyName) {
+		if (expression instanceof BooleanEvaluationExpression booleanExpr) {
+			return booleanExpr.getBooleanValue() ? ALLOW : DENY;
 		} else if (expression instanceof BooleanOperationEvaluationExpression boolExpr) {
-            return switch (boolExpr.getBooleanOperation()) {
-                case AND -> evaluateNode(boolExpr.getLeftChild(), context, policyName) &&
-                        evaluateNode(boolExpr.getRightChild(), context, policyName);
-                case OR -> evaluateNode(boolExpr.getLeftChild(), context, policyName) ||
-                        evaluateNode(boolExpr.getRightChild(), context, policyName);
-                case NOT -> !evaluateNode(
-                        boolExpr.getLeftChild() != null ? boolExpr.getLeftChild() : boolExpr.getRightChild(),
-                        context, policyName);
-                default -> throw new UnsupportedOperationException("Unsupported boolean operation " + boolExpr.getBooleanOperation());
-            };
-		} else if (expression instanceof ResultSetEvaluationExpression) {
-			return context != null && context.getId() != null &&
-				((ResultSetEvaluationExpression) expression).getExternalIds().contains(context.getId());
-		} else if (expression instanceof ValueSetEvaluationExpression) {
-			return context != null && context.pathDataEquals(policyName, (ValueSetEvaluationExpression) expression);
+			return switch (boolExpr.getBooleanOperation()) {
+				case AND -> compile(boolExpr.getLeftChild(), policyName).and(compile(boolExpr.getRightChild(), policyName));
+				case OR -> compile(boolExpr.getLeftChild(), policyName).or(compile(boolExpr.getRightChild(), policyName));
+				case NOT -> compile(boolExpr.getLeftChild() != null ? boolExpr.getLeftChild() : boolExpr.getRightChild(), policyName).negate();
+				default -> throw new UnsupportedOperationException("Unsupported boolean operation " + boolExpr.getBooleanOperation());
+			};
+		} else if (expression instanceof ResultSetEvaluationExpression resultSetExpr) {
+			Collection<String> externalIds = resultSetExpr.getExternalIds();
+			return context -> {
+				if (context == null) {
+					return false;
+				}
+				String id = context.getId();
+				return id != null && externalIds.contains(id);
+			};
+		} else if (expression instanceof ValueSetEvaluationExpression valueSetExpr) {
+			return new ValueSetPredicate(valueSetExpr, policyName);
 		} else {
-			throw new UnsupportedOperationException("Unsupported evaluation expression " + expression.getClass().getName());
+			throw new UnsupportedOperationException("Unsupported evaluation expression " +
+														(expression == null ? null : expression.getClass().getName()));
 		}
 	}
 
 	public static Triple<String, String, String> extractAndValidateExpressionPath(ValueSetEvaluationExpression expression, String policyName) {
-		String[] parts = expression.getPath().split("\\.", 3);
+		return extractAndValidateExpressionPath(expression.getPath(), policyName);
+	}
+
+	public static Triple<String, String, String> extractAndValidateExpressionPath(String path, String policyName) {
+		String[] parts = path.split("\\.", 3);
 		if (parts.length < 2 || (parts.length == 3 && !"identifier".equals(parts[2]))) {
 			throw new IllegalArgumentException(
-				"Policy '" + policyName + "' contains invalid search parameter syntax '" + expression.getPath() + "'. " +
+				"Policy '" + policyName + "' contains invalid search parameter syntax '" + path + "'. " +
 					"The syntax must be 'NameOfResource.search-parameter[.chain]' " +
 					"(where the only permissible chain is .identifier)");
 		}
@@ -59,21 +76,28 @@ public class ExpressionEvaluator {
 
 	public static RuntimeSearchParam validateAndGetSearchParameter(Map<String, RuntimeSearchParam> activeSearchParams,
 																						String searchParameterName, String resourceName, String policyName) {
-		Map<String, RuntimeSearchParam> allowedSearchParameters = filterSearchParameters(activeSearchParams);
-		RuntimeSearchParam searchParameter = allowedSearchParameters.get(searchParameterName);
-		if (searchParameter == null) {
-			throw allowedResourcePathsException(resourceName, policyName, searchParameterName, allowedSearchParameters);
+		RuntimeSearchParam searchParameter = activeSearchParams.get(searchParameterName);
+		if (searchParameter == null || !isAllowed(searchParameter)) {
+			// The allowed parameters are only listed when reporting the error
+			throw allowedResourcePathsException(resourceName, policyName, searchParameterName, filterSearchParameters(activeSearchParams));
 		}
 		return searchParameter;
 	}
 
-	private static Map<String, RuntimeSearchParam> filterSearchParameters(Map<String, RuntimeSearchParam> activeSearchParams) {
+	/**
+	 * @return the search parameters that can be used in policies, those with a path and {@code _id}
+	 */
+	public static Map<String, RuntimeSearchParam> filterSearchParameters(Map<String, RuntimeSearchParam> activeSearchParams) {
 		return activeSearchParams.entrySet().stream()
-			.filter(entry -> entry.getValue().getPath() != null && !entry.getValue().getPath().isEmpty() ||
-				SP_RES_ID.equals(entry.getValue().getName()))
+			.filter(entry -> isAllowed(entry.getValue()))
 			.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
 	}
 
+	private static boolean isAllowed(RuntimeSearchParam searchParameter) {
+		return searchParameter.getPath() != null && !searchParameter.getPath().isEmpty() ||
+			SP_RES_ID.equals(searchParameter.getName());
+	}
+
 	private static IllegalArgumentException allowedResourcePathsException(String resourceName, String policyName, String path,
 																								 Map<String, RuntimeSearchParam> activeSearchParams) {
 		String allowedParams = activeSearchParams.keySet().stream()
@@ -82,4 +106,65 @@ public class ExpressionEvaluator {
 		return new IllegalArgumentException("Policy '" + policyName + "' contains invalid search parameter '" + resourceName + "." + path +
 															"'. Allowed parameters: " + allowedParams);
 	}
+
+	/**
+	 * Compiled {@link ValueSetEvaluationExpression} leaf. The path is split once, and the search parameter is resolved once
+	 * for every active search parameter map it is evaluated against.
+	 */
+	private static final class ValueSetPredicate implements Predicate<ExpressionContext> {
+		private final String policyName;
+		private final String path;
+		private final Collection<String> values;
+		private final String resourceName;
+		private final String searchParameterName;
+		private volatile ResolvedSearchParam resolved;
+
+		private ValueSetPredicate(ValueSetEvaluationExpression valueSet, String policyName) {
+			this.policyName = policyName;
+			this.path = valueSet.getPath();
+			this.values = valueSet.getValues();
+			Triple<String, String, String> pathComponents = null;
+			try {
+				pathComponents = extractAndValidateExpressionPath(path, policyName);
+			} catch (IllegalArgumentException e) {
+				// Invalid paths are reported when evaluated, like before compilation
+			}
+			this.resourceName = pathComponents != null ? pathComponents.a : null;
+			this.searchParameterName = pathComponents != null ? pathComponents.b : null;
+		}
+
+		@Override
+		public boolean test(ExpressionContext context) {
+			IBaseResource resource = context != null ? context.getTargetResource() : null;
+			if (resource == null) {
+				return false;
+			}
+			if (resourceName == null) {
+				extractAndValidateExpressionPath(path, policyName);
+			}
+			if (!ExpressionContext.getResourceType(resource).equals(resourceName)) {
+				return true;
+			}
+
+			for (String value : context.extractValues(resolveSearchParameter(context.getActiveSearchParams()))) {
+				if (values.contains(value)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private RuntimeSearchParam resolveSearchParameter(Map<String, RuntimeSearchParam> activeSearchParams) {
+			ResolvedSearchParam current = resolved;
+			if (current == null || current.activeSearchParams() != activeSearchParams) {
+				current = new ResolvedSearchParam(activeSearchParams,
+												  validateAndGetSearchParameter(activeSearchParams, searchParameterName, resourceName, policyName));
+				resolved = current;
+			}
+			return current.searchParam();
+		}
+	}
+
+	private record ResolvedSearchParam(Map<String, RuntimeSearchParam> activeSearchParams, RuntimeSearchParam searchParam) {
+	}
 }
@@ -0,0 +1,75 @@
+package com.tadejd.dipllib.evaluation;
+
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Search parameter values extracted from stored resources, shared across requests and bounded by size and TTL.
+ * Values are keyed by the versioned resource id, so only resources with an id and a version are cached; a new
+ * version of a resource never sees the values of an older one.
+ *
+ * @author Tadej Delopst
+ */
+public class ExtractedValueCache {
+	private final long ttlNanos;
+	private final int maxSize;
+	private final LinkedHashMap<Key, Entry> entries;
+
+	public ExtractedValueCache(Duration ttl, int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("ABAC value cache size must be positive, was " + maxSize);
+		}
+		this.ttlNanos = ttl.toNanos();
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				return size() > ExtractedValueCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @return the key of the resource's values, or {@code null} if the resource has no version and cannot be cached
+	 */
+	static Key key(IBaseResource resource, RuntimeSearchParam searchParam) {
+		IIdType id = resource.getIdElement();
+		if (id == null || !id.hasIdPart() || !id.hasVersionIdPart()) {
+			return null;
+		}
+		return new Key(ExpressionContext.getResourceType(resource), id.getIdPart(), id.getVersionIdPart(),
+					   searchParam.getName(), searchParam.getPath());
+	}
+
+	synchronized List<String> get(Key key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (System.nanoTime() - entry.expiresAt() >= 0) {
+			entries.remove(key);
+			return null;
+		}
+		return entry.values();
+	}
+
+	synchronized void put(Key key, List<String> values) {
+		entries.put(key, new Entry(List.copyOf(values), System.nanoTime() + ttlNanos));
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	record Key(String resourceType, String id, String version, String searchParameter, String path) {
+	}
+
+	private record Entry(List<String> values, long expiresAt) {
+	}
+}
@@ -5,7 +5,7 @@ import ca.uhn.fhir.rest.server.util.ISearchParamRegistry;
 import ca.uhn.fhir.rest.server.util.ResourceSearchParams;
 
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -15,38 +15,32 @@ import java.util.stream.Collectors;
 public class FhirActiveSearchParametersSupplier implements Supplier<Map<String, RuntimeSearchParam>> {
 
 	private final String resourceName;
-	private final ISearchParamRegistry theSearchParamRegistry;
+	private final Function<String, Map<String, RuntimeSearchParam>> searchParametersLoader;
 
-	private Map<String, RuntimeSearchParam> activeSearchParameters = null;
-	private boolean read = false;
-
-	private final ReentrantLock lock = new ReentrantLock();
+	private final MemoizingSupplier<Map<String, RuntimeSearchParam>> activeSearchParameters =
+		new MemoizingSupplier<>(() -> this.searchParametersLoader.apply(this.resourceName));
 
 	public FhirActiveSearchParametersSupplier(String resourceName, ISearchParamRegistry theSearchParamRegistry) {
+		this(resourceName, name -> {
+			ResourceSearchParams searchParams = theSearchParamRegistry.getActiveSearchParams(name);
+			return searchParams.getSearchParamNames().stream()
+				.collect(Collectors.toMap(
+					paramName -> paramName,
+					searchParams::get
+				));
+		});
+	}
+
+	/**
+	 * @param searchParametersLoader loads the search parameters of a resource type, for example from a shared per-type cache
+	 */
+	public FhirActiveSearchParametersSupplier(String resourceName, Function<String, Map<String, RuntimeSearchParam>> searchParametersLoader) {
 		this.resourceName = resourceName;
-		this.theSearchParamRegistry = theSearchParamRegistry;
+		this.searchParametersLoader = searchParametersLoader;
 	}
 
 	@Override
 	public Map<String, RuntimeSearchParam> get() {
-		lock.lock();
-		try {
-			if (!read) {
-				ResourceSearchParams searchParams = readSearchParameters();
-				activeSearchParameters = searchParams.getSearchParamNames().stream()
-					.collect(Collectors.toMap(
-						name -> name,
-						searchParams::get
-					));
-				read = true;
-			}
-			return activeSearchParameters;
-		} finally {
-			lock.unlock();
-		}
-	}
-
-	private ResourceSearchParams readSearchParameters() {
-		return theSearchParamRegistry.getActiveSearchParams(resourceName);
+		return activeSearchParameters.get();
 	}
 }
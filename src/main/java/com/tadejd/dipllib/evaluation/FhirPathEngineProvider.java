@@ -0,0 +1,29 @@
+package com.tadejd.dipllib.evaluation;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.r4.fhirpath.FHIRPathEngine;
+import org.hl7.fhir.r4.hapi.ctx.HapiWorkerContext;
+
+import java.util.function.Supplier;
+
+/**
+ * Supplies a {@link FHIRPathEngine} confined to the calling thread. The engine and its worker context keep
+ * mutable state while evaluating, so a single instance must not be shared between concurrently running threads.
+ * Parsed expression trees are not tied to an engine and can be evaluated by any of them.
+ *
+ * @author Tadej Delopst
+ */
+public class FhirPathEngineProvider implements Supplier<FHIRPathEngine> {
+
+	private final ThreadLocal<FHIRPathEngine> engines;
+
+	public FhirPathEngineProvider(FhirContext fhirContext) {
+		this.engines = ThreadLocal.withInitial(
+			() -> new FHIRPathEngine(new HapiWorkerContext(fhirContext, fhirContext.getValidationSupport())));
+	}
+
+	@Override
+	public FHIRPathEngine get() {
+		return engines.get();
+	}
+}
@@ -2,9 +2,12 @@ package com.tadejd.dipllib.evaluation;
 
 import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
 import ca.uhn.fhir.model.primitive.IdDt;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
 /**
@@ -12,15 +15,13 @@ import java.util.function.Supplier;
  */
 
 public class FhirReadResourceSupplier implements Supplier<IBaseResource> {
+	private static final Logger log = LoggerFactory.getLogger(FhirReadResourceSupplier.class);
 
 	private final IFhirResourceDao<? extends IBaseResource> resourceDao;
 	private final String resourceName;
 	private final String resourceId;
 
-	private IBaseResource resource = null;
-	private boolean read = false;
-
-	private final ReentrantLock lock = new ReentrantLock();
+	private final MemoizingSupplier<IBaseResource> resource = new MemoizingSupplier<>(this::readResource);
 
 	public FhirReadResourceSupplier(
 		IFhirResourceDao<? extends IBaseResource> resourceDao,
@@ -31,28 +32,29 @@ public class FhirReadResourceSupplier implements Supplier<IBaseResource> {
 		this.resourceId = resourceId;
 	}
 
+	/**
+	 * @return the resource, or {@code null} if it does not exist or could not be read. A missing or deleted resource
+	 * is remembered, while other failures are retried on the next call.
+	 */
 	@Override
 	public IBaseResource get() {
-		lock.lock();
 		try {
-			if (!read) {
-				try {
-					resource = readResource();
-				} catch (Exception e) {
-					resource = null;
-				}
-				read = true;
-			}
-			return resource;
-		} finally {
-			lock.unlock();
+			return resource.get();
+		} catch (RuntimeException e) {
+			// Evaluated as a missing resource; logged at debug, as every evaluation against the resource may end up here
+			log.debug("Could not read {}/{} for ABAC evaluation", resourceName, resourceId, e);
+			return null;
 		}
 	}
 
 	private IBaseResource readResource() {
-		if (resourceDao != null) {
+		if (resourceDao == null || resourceId == null) {
+			return null;
+		}
+		try {
 			return resourceDao.read(new IdDt(resourceName, resourceId), null);
+		} catch (ResourceNotFoundException | ResourceGoneException e) {
+			return null;
 		}
-		return null;
 	}
 }
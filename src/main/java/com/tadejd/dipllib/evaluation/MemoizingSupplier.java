@@ -0,0 +1,40 @@
+package com.tadejd.dipllib.evaluation;
+
+import java.util.function.Supplier;
+
+/**
+ * Supplier that loads its value once and returns it without locking afterwards. The first callers synchronize on
+ * the loader, so the value is loaded by a single thread. If loading throws, nothing is remembered and the next call
+ * tries again; a {@code null} value is remembered like any other.
+ *
+ * @author Tadej Delopst
+ */
+public final class MemoizingSupplier<T> implements Supplier<T> {
+	private Supplier<T> loader;
+	private volatile boolean loaded;
+	// Written before the volatile loaded flag and read after it, so the flag publishes it safely
+	private T value;
+
+	public MemoizingSupplier(Supplier<T> loader) {
+		this.loader = loader;
+	}
+
+	@Override
+	public T get() {
+		if (!loaded) {
+			synchronized (this) {
+				if (!loaded) {
+					value = loader.get();
+					loaded = true;
+					// The loader is no longer needed and may hold on to request state
+					loader = null;
+				}
+			}
+		}
+		return value;
+	}
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+}
@@ -0,0 +1,64 @@
+package com.tadejd.dipllib.metrics;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+
+/**
+ * Records the cost and outcome of ABAC evaluation. Implementations must be thread-safe and cheap, since they are
+ * called on every request. {@link #NOOP} is used when no metrics backend is configured.
+ *
+ * @author Tadej Delopst
+ */
+public interface AbacMetrics {
+	AbacMetrics NOOP = new AbacMetrics() {
+	};
+
+	/**
+	 * A call to the ABAC server for the given number of context entries.
+	 */
+	default void recordDecisionRequest(String policyName, int contextEntries, long durationNanos, boolean success) {
+	}
+
+	/**
+	 * Context entries answered from the decision cache and sent to the ABAC server.
+	 */
+	default void recordCacheLookup(String policyName, int hits, int misses) {
+	}
+
+	/**
+	 * A call that waited for an identical call already in flight instead of calling the ABAC server.
+	 */
+	default void recordCoalescedRequest(String policyName) {
+	}
+
+	/**
+	 * A call answered with fallback decisions because the ABAC server could not be called or failed, for the given
+	 * reason: {@code circuit_open}, {@code bulkhead_full}, {@code timeout} or {@code error}.
+	 */
+	default void recordFallback(String policyName, String reason) {
+	}
+
+	/**
+	 * Evaluation of the FHIRPath mappings of a policy for a number of resources.
+	 */
+	default void recordContextExtraction(String policyName, String resourceType, int resources, long durationNanos) {
+	}
+
+	/**
+	 * Resolution of the references used by the mappings of a policy.
+	 */
+	default void recordReferenceResolution(String policyName, String resourceType, long durationNanos) {
+	}
+
+	/**
+	 * Resources allowed and denied by a policy.
+	 */
+	default void recordDecisions(String policyName, String resourceType, RestOperationTypeEnum operation, int allowed, int denied) {
+	}
+
+	/**
+	 * Filtering of one response, with the number of resources it contained and removed.
+	 */
+	default void recordResponseFiltering(String resourceType, RestOperationTypeEnum operation, int resources, int removed,
+										 long durationNanos) {
+	}
+}
@@ -0,0 +1,157 @@
+package com.tadejd.dipllib.metrics;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AbacMetrics} backed by a Micrometer {@link MeterRegistry}. Meters are tagged with {@code policy},
+ * {@code resourceType} and {@code operation} where they apply. Each meter is registered once per combination of tags
+ * and kept, so recording does not go through the registry.
+ *
+ * @author Tadej Delopst
+ */
+public class MicrometerAbacMetrics implements AbacMetrics {
+	private static final String UNKNOWN = "unknown";
+
+	private final MeterRegistry registry;
+	private final Map<MeterKey, Timer> timers = new ConcurrentHashMap<>();
+	private final Map<MeterKey, Counter> counters = new ConcurrentHashMap<>();
+
+	public MicrometerAbacMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public void recordDecisionRequest(String policyName, int contextEntries, long durationNanos, boolean success) {
+		timer(new MeterKey(Meter.CLIENT_REQUESTS, tag(policyName), null, null, success ? "success" : "error"))
+				.record(durationNanos, TimeUnit.NANOSECONDS);
+		counter(new MeterKey(Meter.CLIENT_CONTEXT_ENTRIES, tag(policyName), null, null, null)).increment(contextEntries);
+	}
+
+	@Override
+	public void recordCacheLookup(String policyName, int hits, int misses) {
+		if (hits > 0) {
+			counter(new MeterKey(Meter.CACHE_LOOKUPS, tag(policyName), null, null, "hit")).increment(hits);
+		}
+		if (misses > 0) {
+			counter(new MeterKey(Meter.CACHE_LOOKUPS, tag(policyName), null, null, "miss")).increment(misses);
+		}
+	}
+
+	@Override
+	public void recordCoalescedRequest(String policyName) {
+		counter(new MeterKey(Meter.CLIENT_COALESCED, tag(policyName), null, null, null)).increment();
+	}
+
+	@Override
+	public void recordFallback(String policyName, String reason) {
+		counter(new MeterKey(Meter.CLIENT_FALLBACKS, tag(policyName), null, null, tag(reason))).increment();
+	}
+
+	@Override
+	public void recordContextExtraction(String policyName, String resourceType, int resources, long durationNanos) {
+		timer(new MeterKey(Meter.CONTEXT_EXTRACTION, tag(policyName), tag(resourceType), null, null))
+				.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordReferenceResolution(String policyName, String resourceType, long durationNanos) {
+		timer(new MeterKey(Meter.REFERENCE_RESOLUTION, tag(policyName), tag(resourceType), null, null))
+				.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordDecisions(String policyName, String resourceType, RestOperationTypeEnum operation, int allowed, int denied) {
+		if (allowed > 0) {
+			counter(new MeterKey(Meter.DECISIONS, tag(policyName), tag(resourceType), tag(operation), "allowed")).increment(allowed);
+		}
+		if (denied > 0) {
+			counter(new MeterKey(Meter.DECISIONS, tag(policyName), tag(resourceType), tag(operation), "denied")).increment(denied);
+		}
+	}
+
+	@Override
+	public void recordResponseFiltering(String resourceType, RestOperationTypeEnum operation, int resources, int removed,
+										long durationNanos) {
+		timer(new MeterKey(Meter.RESPONSE_FILTERING, null, tag(resourceType), tag(operation), null))
+				.record(durationNanos, TimeUnit.NANOSECONDS);
+		counter(new MeterKey(Meter.RESPONSE_REMOVED, null, tag(resourceType), tag(operation), null)).increment(removed);
+	}
+
+	private Timer timer(MeterKey key) {
+		Timer timer = timers.get(key);
+		return timer != null ? timer : timers.computeIfAbsent(key, k -> Timer.builder(k.meter.name)
+				.description(k.meter.description)
+				.tags(k.tags())
+				.register(registry));
+	}
+
+	private Counter counter(MeterKey key) {
+		Counter counter = counters.get(key);
+		return counter != null ? counter : counters.computeIfAbsent(key, k -> Counter.builder(k.meter.name)
+				.description(k.meter.description)
+				.tags(k.tags())
+				.register(registry));
+	}
+
+	private static String tag(String value) {
+		return value != null ? value : UNKNOWN;
+	}
+
+	private static String tag(RestOperationTypeEnum operation) {
+		return operation != null ? operation.name() : UNKNOWN;
+	}
+
+	private enum Meter {
+		CLIENT_REQUESTS("abac.client.requests", "Calls to the ABAC server", "outcome"),
+		CLIENT_CONTEXT_ENTRIES("abac.client.context.entries", "Context entries sent to the ABAC server", null),
+		CACHE_LOOKUPS("abac.cache.lookups", "Context entries looked up in the decision cache", "result"),
+		CLIENT_COALESCED("abac.client.coalesced", "Calls that joined an identical call to the ABAC server already in flight", null),
+		CLIENT_FALLBACKS("abac.client.fallbacks", "Calls answered with fallback decisions instead of the ABAC server", "reason"),
+		CONTEXT_EXTRACTION("abac.context.extraction", "Evaluation of policy mappings for a batch of resources", null),
+		REFERENCE_RESOLUTION("abac.reference.resolution", "Resolution of resources referenced by policy mappings", null),
+		DECISIONS("abac.decisions", "Resources evaluated by a policy", "result"),
+		RESPONSE_FILTERING("abac.response.filtering", "Filtering of outgoing responses", null),
+		RESPONSE_REMOVED("abac.response.removed", "Resources removed from outgoing responses", null);
+
+		private final String name;
+		private final String description;
+		// Name of the tag that tells outcomes of the same meter apart, if it has one
+		private final String outcomeTag;
+
+		Meter(String name, String description, String outcomeTag) {
+			this.name = name;
+			this.description = description;
+			this.outcomeTag = outcomeTag;
+		}
+	}
+
+	/**
+	 * Identifies one meter; tags that do not apply to the meter are {@code null}.
+	 */
+	private record MeterKey(Meter meter, String policy, String resourceType, String operation, String outcome) {
+		private Tags tags() {
+			Tags tags = Tags.empty();
+			if (policy != null) {
+				tags = tags.and("policy", policy);
+			}
+			if (resourceType != null) {
+				tags = tags.and("resourceType", resourceType);
+			}
+			if (operation != null) {
+				tags = tags.and("operation", operation);
+			}
+			if (outcome != null) {
+				tags = tags.and(meter.outcomeTag, outcome);
+			}
+			return tags;
+		}
+	}
+}
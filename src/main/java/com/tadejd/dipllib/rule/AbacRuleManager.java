@@ -1,19 +1,101 @@
 package com.tadejd.dipllib.rule;
 
+import ca.uhn.fhir.context.RuntimeSearchParam;
 import ca.uhn.fhir.rest.server.util.ISearchParamRegistry;
+import ca.uhn.fhir.rest.server.util.ResourceSearchParams;
+import com.tadejd.dipllib.evaluation.ExpressionEvaluator;
 import com.tadejd.dipllib.evaluation.FhirActiveSearchParametersSupplier;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * @author Tadej Delopst
  */
 public class AbacRuleManager {
+	// The registry refreshes its search parameters about once a minute, so checking it on every request gains nothing
+	private static final Duration RECHECK_INTERVAL = Duration.ofSeconds(10);
+
 	private ISearchParamRegistry searchParamRegistry;
+	private final long recheckNanos;
+
+	// Active search parameters per resource type, with those usable in policies, as of the last registry lookup
+	private final Map<String, SearchParamsSnapshot> searchParams = new ConcurrentHashMap<>();
 
 	public AbacRuleManager(ISearchParamRegistry searchParamRegistry) {
+		this(searchParamRegistry, RECHECK_INTERVAL);
+	}
+
+	/**
+	 * @param recheckInterval how long search parameters are used before the registry is checked for changes
+	 */
+	AbacRuleManager(ISearchParamRegistry searchParamRegistry, Duration recheckInterval) {
 		this.searchParamRegistry = searchParamRegistry;
+		this.recheckNanos = recheckInterval.toNanos();
 	}
 
 	public FhirActiveSearchParametersSupplier createActiveSearchParametersSupplier(String resourceType) {
-		return new FhirActiveSearchParametersSupplier(resourceType, searchParamRegistry);
+		return new FhirActiveSearchParametersSupplier(resourceType, this::getActiveSearchParams);
+	}
+
+	/**
+	 * Returns all active search parameters of the resource type. The map is shared, and only rebuilt when the registry
+	 * returns different search parameters, for example after a refresh. The registry is checked for changes at most
+	 * once every {@code recheckInterval}, 10 seconds by default.
+	 */
+	public Map<String, RuntimeSearchParam> getActiveSearchParams(String resourceType) {
+		return snapshot(resourceType).active();
+	}
+
+	/**
+	 * Returns the search parameters of the resource type that policies may use, shared like
+	 * {@link #getActiveSearchParams}.
+	 */
+	public Map<String, RuntimeSearchParam> getAllowedSearchParams(String resourceType) {
+		return snapshot(resourceType).allowed();
+	}
+
+	private SearchParamsSnapshot snapshot(String resourceType) {
+		SearchParamsSnapshot snapshot = searchParams.get(resourceType);
+		long now = System.nanoTime();
+		if (snapshot != null && now - snapshot.checkedAt() < recheckNanos) {
+			return snapshot;
+		}
+
+		// The registry may return a new wrapper on every lookup, so the snapshot is compared by content
+		ResourceSearchParams activeSearchParams = searchParamRegistry.getActiveSearchParams(resourceType);
+		if (snapshot != null && snapshot.matches(activeSearchParams)) {
+			snapshot = new SearchParamsSnapshot(snapshot.active(), snapshot.allowed(), now);
+		} else {
+			Map<String, RuntimeSearchParam> active = new HashMap<>();
+			activeSearchParams.getSearchParamNames().forEach(name -> active.put(name, activeSearchParams.get(name)));
+			snapshot = new SearchParamsSnapshot(Collections.unmodifiableMap(active),
+												Map.copyOf(ExpressionEvaluator.filterSearchParameters(active)), now);
+		}
+		searchParams.put(resourceType, snapshot);
+		return snapshot;
+	}
+
+	private record SearchParamsSnapshot(Map<String, RuntimeSearchParam> active, Map<String, RuntimeSearchParam> allowed,
+										long checkedAt) {
+		/**
+		 * @return whether the registry returned the same search parameter instances under the same names
+		 */
+		boolean matches(ResourceSearchParams activeSearchParams) {
+			Collection<String> names = activeSearchParams.getSearchParamNames();
+			if (names.size() != active.size()) {
+				return false;
+			}
+			for (String name : names) {
+				if (active.get(name) != activeSearchParams.get(name)) {
+					return false;
+				}
+			}
+			return true;
+		}
 	}
 }
@@ -0,0 +1,300 @@
+package com.tadejd.dipllib;
+
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.model.search.ICachedSearchDetails;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import care.better.abac.policy.execute.evaluation.BooleanEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import care.better.abac.policy.execute.evaluation.ValueSetEvaluationExpression;
+import com.tadejd.dipllib.client.AbacRestClient;
+import com.tadejd.dipllib.config.AbacProperties;
+import com.tadejd.dipllib.rule.AbacRuleManager;
+import junit.framework.TestCase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CareTeam;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * @author Tadej Delopst
+ */
+public class AbacInterceptorTest extends TestCase {
+	private static final String GENDER_SYSTEM = "http://hl7.org/fhir/administrative-gender";
+
+	public void testSearchFilteredSearchIsNotReused() {
+		RecordingClient client = new RecordingClient(context -> new ValueSetEvaluationExpression("Patient.gender", Set.of(GENDER_SYSTEM + "|female")));
+		AbacInterceptor interceptor = interceptor(new AbacProperties(), client, List.of(), searchFilterPolicy("FILTER"));
+		RequestDetails request = TestFixtures.request("Patient", RestOperationTypeEnum.SEARCH_TYPE);
+		AtomicBoolean cannotBeReused = new AtomicBoolean();
+		SearchParameterMap params = new SearchParameterMap();
+
+		assertFalse(interceptor.hookPrecheckForCachedSearch(request));
+		interceptor.hookPreSearchRegistered(request, searchDetails("Patient", cannotBeReused), params);
+
+		assertTrue(cannotBeReused.get());
+		assertTrue(params.containsKey("gender"));
+		// The search-filtered policy sends the context of every entry, which is empty without mappings
+		assertEquals(List.of(Map.of()), client.calls("FILTER").get(0));
+	}
+
+	public void testSearchWithoutSearchFilterPolicyIsReused() {
+		RecordingClient client = new RecordingClient(context -> new BooleanEvaluationExpression(true));
+		AbacProperties.PolicyProperties policy = searchFilterPolicy("POST_FILTER");
+		policy.setSearchFilter(false);
+		AbacInterceptor interceptor = interceptor(new AbacProperties(), client, List.of(), policy);
+		RequestDetails request = TestFixtures.request("Patient", RestOperationTypeEnum.SEARCH_TYPE);
+		AtomicBoolean cannotBeReused = new AtomicBoolean();
+
+		assertTrue(interceptor.hookPrecheckForCachedSearch(request));
+		interceptor.hookPreSearchRegistered(request, searchDetails("Patient", cannotBeReused), new SearchParameterMap());
+
+		assertFalse(cannotBeReused.get());
+		assertTrue(client.calls("POST_FILTER").isEmpty());
+	}
+
+	public void testChunkedFilteringMatchesWholeBundle() {
+		List<Patient> patients = patients(7);
+		List<CareTeam> careTeams = careTeams(patients);
+
+		List<String> whole = filterGenderAndCareTeam(0, patients, careTeams, new ArrayList<>());
+		List<Object> searches = new ArrayList<>();
+		List<String> chunked = filterGenderAndCareTeam(2, patients, careTeams, searches);
+
+		assertEquals(List.of("p-0", "p-6"), whole);
+		assertEquals(whole, chunked);
+		// References are resolved once for the whole Bundle, not once per chunk
+		assertEquals(1, searches.size());
+	}
+
+	public void testFailedPolicyCancelsDecisionsInFlight() {
+		CompletableFuture<List<EvaluationExpression>> pending = new CompletableFuture<>();
+		RecordingClient client = new RecordingClient(context -> new BooleanEvaluationExpression(true)) {
+			@Override
+			public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+				return "FAILING".equals(policyName) ? CompletableFuture.failedFuture(new IllegalStateException("ABAC server unavailable")) : pending;
+			}
+		};
+		AbacProperties properties = new AbacProperties();
+		properties.getEvaluation().setDenyFast(false);
+		properties.getEvaluation().setCostBasedOrdering(false);
+		AbacInterceptor interceptor = interceptor(properties, client, List.of(), policy("FAILING", "SEARCH_TYPE"), policy("PENDING", "SEARCH_TYPE"));
+
+		try {
+			interceptor.hookOutgoingResponse(TestFixtures.request("Patient", RestOperationTypeEnum.SEARCH_TYPE), bundle(patients(3)),
+											 Pointcut.SERVER_OUTGOING_RESPONSE);
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			assertEquals("ABAC server unavailable", e.getMessage());
+		}
+		assertTrue(pending.isCancelled());
+	}
+
+	public void testPoliciesReceiveAllEntriesByDefault() {
+		RecordingClient client = genderAndFamilyClient();
+		AbacProperties properties = new AbacProperties();
+		properties.getEvaluation().setCostBasedOrdering(false);
+		AbacInterceptor interceptor = interceptor(properties, client, List.of(), genderPolicy(), familyPolicy());
+
+		assertEquals(List.of("p-0", "p-3", "p-6"), filter(interceptor, patients(7)));
+		assertEquals(7, client.calls("FAMILY").get(0).size());
+	}
+
+	public void testDenyFastSendsOnlyAllowedEntriesToLaterPolicies() {
+		RecordingClient client = genderAndFamilyClient();
+		AbacProperties properties = new AbacProperties();
+		properties.getEvaluation().setDenyFast(true);
+		properties.getEvaluation().setCostBasedOrdering(false);
+		AbacInterceptor interceptor = interceptor(properties, client, List.of(), genderPolicy(), familyPolicy());
+
+		assertEquals(List.of("p-0", "p-3", "p-6"), filter(interceptor, patients(7)));
+		assertEquals(List.of("GENDER", "FAMILY"), client.policyOrder());
+		assertEquals(3, client.calls("FAMILY").get(0).size());
+	}
+
+	public void testSampledEvaluationSendsAllEntriesToEveryPolicy() {
+		RecordingClient client = genderAndFamilyClient();
+		AbacProperties properties = new AbacProperties();
+		properties.getEvaluation().setDenyFast(true);
+		AbacInterceptor interceptor = interceptor(properties, client, List.of(), genderPolicy(), familyPolicy());
+
+		// Without observations the first evaluation is sampled, so the deny rate of FAMILY is not measured on GENDER's survivors
+		assertEquals(List.of("p-0", "p-3", "p-6"), filter(interceptor, patients(7)));
+		assertEquals(7, client.calls("FAMILY").get(0).size());
+	}
+
+	private static RecordingClient genderAndFamilyClient() {
+		return new RecordingClient(context -> new BooleanEvaluationExpression(!"male".equals(context.get("gender"))));
+	}
+
+	private static AbacProperties.PolicyProperties genderPolicy() {
+		return policy("GENDER", "SEARCH_TYPE", mapping("gender", "Patient.gender"));
+	}
+
+	private static AbacProperties.PolicyProperties familyPolicy() {
+		return policy("FAMILY", "SEARCH_TYPE", mapping("family", "Patient.name.family"));
+	}
+
+	private static List<String> filterGenderAndCareTeam(int chunkSize, List<Patient> patients, List<CareTeam> careTeams, List<Object> searches) {
+		RecordingClient client = new RecordingClient(context -> new BooleanEvaluationExpression(
+			"female".equals(context.get("gender")) || "oncology".equals(context.get("careTeamName"))));
+		AbacProperties properties = new AbacProperties();
+		properties.getEvaluation().setChunkSize(chunkSize);
+		AbacProperties.PolicyProperties.Mapping careTeamName = mapping("careTeamName", "CareTeam.name");
+		AbacProperties.PolicyProperties.Reference reference = new AbacProperties.PolicyProperties.Reference();
+		reference.setTargetResource("CareTeam");
+		reference.setSearchParameter("patient");
+		careTeamName.setReference(reference);
+		AbacInterceptor interceptor = interceptor(properties, client, List.of(TestFixtures.resourceDao(CareTeam.class, careTeams, searches)),
+												  policy("GENDER", "SEARCH_TYPE", mapping("gender", "Patient.gender")),
+												  policy("CARE_TEAM", "SEARCH_TYPE", careTeamName));
+		return filter(interceptor, patients);
+	}
+
+	/**
+	 * @return ids of the patients left in the searchset after filtering
+	 */
+	static List<String> filter(AbacInterceptor interceptor, List<Patient> patients) {
+		Bundle bundle = bundle(patients);
+		interceptor.hookOutgoingResponse(TestFixtures.request("Patient", RestOperationTypeEnum.SEARCH_TYPE), bundle,
+										 Pointcut.SERVER_OUTGOING_RESPONSE);
+		return bundle.getEntry().stream().map(entry -> entry.getResource().getIdElement().getIdPart()).toList();
+	}
+
+	static Bundle bundle(List<? extends Resource> resources) {
+		Bundle bundle = new Bundle();
+		bundle.setType(Bundle.BundleType.SEARCHSET);
+		resources.forEach(resource -> bundle.addEntry().setResource(resource));
+		return bundle;
+	}
+
+	/**
+	 * @return patients p-0, p-1, ..., where every third one is female
+	 */
+	static List<Patient> patients(int count) {
+		List<Patient> patients = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/p-" + i + "/_history/1");
+			patient.setGender(i % 3 == 0 ? Enumerations.AdministrativeGender.FEMALE : Enumerations.AdministrativeGender.MALE);
+			patient.addName().setFamily("Family" + i);
+			patients.add(patient);
+		}
+		return patients;
+	}
+
+	/**
+	 * @return one care team per patient, the teams of patients with an even number are oncology teams
+	 */
+	static List<CareTeam> careTeams(List<Patient> patients) {
+		List<CareTeam> careTeams = new ArrayList<>(patients.size());
+		for (int i = 0; i < patients.size(); i++) {
+			CareTeam careTeam = new CareTeam();
+			careTeam.setId("CareTeam/ct-" + i + "/_history/1");
+			careTeam.setName(i % 2 == 0 ? "oncology" : "cardiology");
+			careTeam.setSubject(new Reference("Patient/" + patients.get(i).getIdElement().getIdPart()));
+			careTeams.add(careTeam);
+		}
+		return careTeams;
+	}
+
+	static AbacInterceptor interceptor(AbacProperties properties, AbacRestClient client, List<IFhirResourceDao<? extends IBaseResource>> daos,
+									   AbacProperties.PolicyProperties... policies) {
+		properties.setUrl("http://localhost");
+		properties.setPolicies(List.of(policies));
+		AbacInterceptor interceptor = new AbacInterceptor(properties, daos, new AbacRuleManager(TestFixtures.SEARCH_PARAM_REGISTRY),
+														  TestFixtures.EXTRACTOR, TestFixtures.FHIR_CONTEXT, client);
+		interceptor.initializePolicies();
+		return interceptor;
+	}
+
+	static AbacProperties.PolicyProperties policy(String name, String operations, AbacProperties.PolicyProperties.Mapping... mappings) {
+		AbacProperties.PolicyProperties policy = new AbacProperties.PolicyProperties();
+		policy.setName(name);
+		policy.setType("search");
+		policy.setResourceType("Patient");
+		policy.setOperations(operations);
+		policy.setMappings(List.of(mappings));
+		return policy;
+	}
+
+	static AbacProperties.PolicyProperties searchFilterPolicy(String name) {
+		AbacProperties.PolicyProperties policy = policy(name, "SEARCH_TYPE");
+		policy.setMappings(null);
+		policy.setSearchFilter(true);
+		return policy;
+	}
+
+	static AbacProperties.PolicyProperties.Mapping mapping(String contextAttribute, String expression) {
+		AbacProperties.PolicyProperties.Mapping mapping = new AbacProperties.PolicyProperties.Mapping();
+		mapping.setContextAttribute(contextAttribute);
+		mapping.setExpression(expression);
+		return mapping;
+	}
+
+	private static ICachedSearchDetails searchDetails(String resourceType, AtomicBoolean cannotBeReused) {
+		return (ICachedSearchDetails)Proxy.newProxyInstance(ICachedSearchDetails.class.getClassLoader(), new Class<?>[]{ICachedSearchDetails.class},
+															(proxy, method, args) -> switch (method.getName()) {
+																case "getResourceType" -> resourceType;
+																case "setCannotBeReused" -> {
+																	cannotBeReused.set(true);
+																	yield null;
+																}
+																case "isCannotBeReused" -> cannotBeReused.get();
+																default -> null;
+															});
+	}
+
+	/**
+	 * Answers every context entry with the decision of {@code decide} and records the calls per policy.
+	 */
+	static class RecordingClient implements AbacRestClient {
+		private final Function<Map<String, Object>, EvaluationExpression> decide;
+		private final List<Call> calls = Collections.synchronizedList(new ArrayList<>());
+
+		RecordingClient(Function<Map<String, Object>, EvaluationExpression> decide) {
+			this.decide = decide;
+		}
+
+		@Override
+		public EvaluationExpression execute(String policyName, Map<String, String> context) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+			calls.add(new Call(policyName, List.copyOf(context)));
+			return context.stream().map(decide).toList();
+		}
+
+		List<List<Map<String, Object>>> calls(String policyName) {
+			synchronized (calls) {
+				return calls.stream().filter(call -> call.policyName().equals(policyName)).map(Call::context).toList();
+			}
+		}
+
+		List<String> policyOrder() {
+			synchronized (calls) {
+				return calls.stream().map(Call::policyName).toList();
+			}
+		}
+
+		private record Call(String policyName, List<Map<String, Object>> context) {
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.tadejd.dipllib;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Tadej Delopst
+ */
+public class PolicyIndexTest extends TestCase {
+	private static final Policy READ_AND_SEARCH = policy("READ_AND_SEARCH", "Patient", RestOperationTypeEnum.READ, RestOperationTypeEnum.SEARCH_TYPE);
+	private static final Policy SEARCH = policy("SEARCH", "Patient", RestOperationTypeEnum.SEARCH_TYPE);
+	private static final Policy WILDCARD = policy("WILDCARD", "*", RestOperationTypeEnum.READ);
+	private static final Policy CARE_TEAM = policy("CARE_TEAM", "CareTeam", RestOperationTypeEnum.UPDATE);
+
+	private final PolicyIndex index = new PolicyIndex(List.of(READ_AND_SEARCH, SEARCH, WILDCARD, CARE_TEAM));
+
+	public void testPolicyIsIndexedForEachOperation() {
+		assertEquals(List.of(READ_AND_SEARCH, SEARCH), matching("Patient", RestOperationTypeEnum.SEARCH_TYPE));
+		assertEquals(List.of(READ_AND_SEARCH), matching("Patient", RestOperationTypeEnum.READ));
+		assertEquals(List.of(), matching("Patient", RestOperationTypeEnum.UPDATE));
+		assertEquals(List.of(CARE_TEAM), matching("CareTeam", RestOperationTypeEnum.UPDATE));
+	}
+
+	public void testWildcardResourceTypeIsNotExpanded() {
+		assertEquals(List.of(READ_AND_SEARCH), matching("Patient", RestOperationTypeEnum.READ));
+		assertEquals(List.of(), matching("Observation", RestOperationTypeEnum.READ));
+		assertEquals(List.of(WILDCARD), matching("*", RestOperationTypeEnum.READ));
+	}
+
+	public void testUnknownResourceTypeMatchesNothing() {
+		assertEquals(0, index.matching("Observation", RestOperationTypeEnum.SEARCH_TYPE).length);
+		assertEquals(0, index.matching(null, RestOperationTypeEnum.SEARCH_TYPE).length);
+		assertEquals(0, index.matching("Patient", null).length);
+	}
+
+	public void testIndexAgreesWithPolicyMatches() {
+		List<Policy> policies = List.of(READ_AND_SEARCH, SEARCH, WILDCARD, CARE_TEAM);
+		for (String resourceType : List.of("Patient", "CareTeam", "*", "Observation")) {
+			for (RestOperationTypeEnum operationType : RestOperationTypeEnum.values()) {
+				List<Policy> expected = policies.stream().filter(policy -> policy.matches(resourceType, operationType)).toList();
+				assertEquals(resourceType + " " + operationType, expected, matching(resourceType, operationType));
+			}
+		}
+	}
+
+	private List<Policy> matching(String resourceType, RestOperationTypeEnum operationType) {
+		return Arrays.asList(index.matching(resourceType, operationType));
+	}
+
+	private static Policy policy(String name, String resourceType, RestOperationTypeEnum... operations) {
+		return new Policy(name, resourceType, List.of(operations), null, false);
+	}
+}
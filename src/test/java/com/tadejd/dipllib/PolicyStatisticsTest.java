@@ -0,0 +1,60 @@
+package com.tadejd.dipllib;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * @author Tadej Delopst
+ */
+public class PolicyStatisticsTest extends TestCase {
+	private final Policy selective = policy("SELECTIVE");
+	private final Policy permissive = policy("PERMISSIVE");
+	private final PolicyStatistics statistics = new PolicyStatistics();
+
+	public void testKeepsOrderWithoutEnoughObservations() {
+		statistics.recordCost("PERMISSIVE", 100, 1_000);
+		statistics.recordDecisions("PERMISSIVE", 99, 1);
+		statistics.recordCost("SELECTIVE", 10, 100);
+		statistics.recordDecisions("SELECTIVE", 5, 5);
+
+		assertEquals(List.of(permissive, selective), statistics.order(List.of(permissive, selective)));
+	}
+
+	public void testOrdersByCostPerDeniedEntry() {
+		// Equal cost per entry, the policy that denies more entries goes first
+		statistics.recordCost("PERMISSIVE", 100, 1_000);
+		statistics.recordDecisions("PERMISSIVE", 90, 10);
+		statistics.recordCost("SELECTIVE", 100, 1_000);
+		statistics.recordDecisions("SELECTIVE", 50, 50);
+
+		assertEquals(List.of(selective, permissive), statistics.order(List.of(permissive, selective)));
+
+		// A policy ten times as expensive per entry goes last despite its deny rate
+		statistics.recordCost("SELECTIVE", 100, 19_000);
+		assertEquals(List.of(permissive, selective), statistics.order(List.of(permissive, selective)));
+	}
+
+	public void testSamplesUntilEveryPolicyHasEnoughObservations() {
+		List<Policy> policies = List.of(permissive, selective);
+		assertTrue(statistics.sample(policies));
+
+		statistics.recordDecisions("PERMISSIVE", 100, 0);
+		assertTrue(statistics.sample(policies));
+
+		statistics.recordDecisions("SELECTIVE", 50, 50);
+		int sampled = 0;
+		for (int i = 0; i < 100; i++) {
+			if (statistics.sample(policies)) {
+				sampled++;
+			}
+		}
+		// Afterwards only occasional evaluations are sampled
+		assertEquals(5, sampled);
+	}
+
+	private static Policy policy(String name) {
+		return new Policy(name, "Patient", List.of(RestOperationTypeEnum.SEARCH_TYPE), List.of(), false);
+	}
+}
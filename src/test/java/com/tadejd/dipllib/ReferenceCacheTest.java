@@ -0,0 +1,75 @@
+package com.tadejd.dipllib;
+
+import junit.framework.TestCase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CareTeam;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Tadej Delopst
+ */
+public class ReferenceCacheTest extends TestCase {
+	private static final ReferenceCache.ReferenceKey KEY = new ReferenceCache.ReferenceKey("CareTeam", "patient", "Patient/p-1");
+	private static final List<IBaseResource> TARGETS = List.of(new CareTeam());
+
+	public void testReturnsTargetsOfCurrentGeneration() {
+		ReferenceCache cache = new ReferenceCache(Duration.ofMinutes(1), 10);
+		cache.put(KEY, TARGETS, cache.generation("CareTeam"));
+
+		assertEquals(TARGETS, cache.get(KEY));
+	}
+
+	public void testWriteInvalidatesTargetsOfThatType() {
+		ReferenceCache cache = new ReferenceCache(Duration.ofMinutes(1), 10);
+		cache.put(KEY, TARGETS, cache.generation("CareTeam"));
+
+		cache.invalidate("Patient");
+		assertEquals(TARGETS, cache.get(KEY));
+
+		cache.invalidate("CareTeam");
+		assertNull(cache.get(KEY));
+	}
+
+	public void testTargetsSearchedBeforeWriteAreNotCached() {
+		ReferenceCache cache = new ReferenceCache(Duration.ofMinutes(1), 10);
+		long generation = cache.generation("CareTeam");
+
+		cache.invalidate("CareTeam");
+		cache.put(KEY, TARGETS, generation);
+
+		assertNull(cache.get(KEY));
+	}
+
+	public void testExpiredTargetsAreMissing() {
+		ReferenceCache cache = new ReferenceCache(Duration.ZERO, 10);
+		cache.put(KEY, TARGETS, cache.generation("CareTeam"));
+
+		assertNull(cache.get(KEY));
+	}
+
+	public void testInvalidatesAgainAfterTransactionCompletes() {
+		ReferenceCache cache = new ReferenceCache(Duration.ofMinutes(1), 10);
+		ReferenceResolver resolver = new ReferenceResolver(Map.of(), null, null, null, cache);
+
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			resolver.invalidate("CareTeam");
+			// A concurrent search still sees the data from before the commit
+			cache.put(KEY, TARGETS, cache.generation("CareTeam"));
+			assertEquals(TARGETS, cache.get(KEY));
+
+			for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+				synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+			}
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		assertNull(cache.get(KEY));
+	}
+}
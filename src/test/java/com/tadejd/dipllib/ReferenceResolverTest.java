@@ -0,0 +1,44 @@
+package com.tadejd.dipllib;
+
+import ca.uhn.fhir.rest.server.util.ResourceSearchParams;
+import com.tadejd.dipllib.rule.AbacRuleManager;
+import junit.framework.TestCase;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CareTeam;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Tadej Delopst
+ */
+public class ReferenceResolverTest extends TestCase {
+	public void testRegistryOnlySearchParamIsSearchedOnce() {
+		List<Patient> patients = AbacInterceptorTest.patients(3);
+		List<CareTeam> careTeams = AbacInterceptorTest.careTeams(patients);
+		List<Object> searches = new ArrayList<>();
+		// A custom search parameter, known to the registry but not to the FHIR context
+		AbacRuleManager ruleManager = new AbacRuleManager(TestFixtures.searchParamRegistry(resourceName -> {
+			ResourceSearchParams searchParams = TestFixtures.readSearchParams(resourceName);
+			if ("CareTeam".equals(resourceName)) {
+				searchParams.put("member-patient", searchParams.get("patient"));
+			}
+			return searchParams;
+		}));
+		ReferenceResolver resolver = new ReferenceResolver(Map.of(CareTeam.class, TestFixtures.resourceDao(CareTeam.class, careTeams, searches)),
+														   TestFixtures.FHIR_CONTEXT, ruleManager, TestFixtures.EXTRACTOR, null);
+		Policy.Reference reference = new Policy.Reference("CareTeam", "member-patient");
+
+		Map<Policy.Reference, Map<String, List<IBaseResource>>> resolved = resolver.resolve(
+			List.of(new Policy.Mapping("careTeamName", "CareTeam.name", null, reference)), new ArrayList<Resource>(patients), new HashMap<>());
+
+		assertEquals(1, searches.size());
+		for (int i = 0; i < patients.size(); i++) {
+			assertEquals(List.of(careTeams.get(i)), resolved.get(reference).get("Patient/p-" + i));
+		}
+	}
+}
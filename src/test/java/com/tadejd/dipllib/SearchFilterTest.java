@@ -0,0 +1,182 @@
+package com.tadejd.dipllib;
+
+import ca.uhn.fhir.jpa.model.entity.BaseResourceIndexedSearchParam;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamString;
+import ca.uhn.fhir.jpa.model.entity.ResourceIndexedSearchParamToken;
+import ca.uhn.fhir.jpa.searchparam.SearchParameterMap;
+import ca.uhn.fhir.jpa.searchparam.extractor.PathAndRef;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import care.better.abac.policy.execute.evaluation.BooleanEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.BooleanOperation;
+import care.better.abac.policy.execute.evaluation.BooleanOperationEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import care.better.abac.policy.execute.evaluation.ResultSetEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.ValueSetEvaluationExpression;
+import com.tadejd.dipllib.evaluation.ExpressionContext;
+import com.tadejd.dipllib.evaluation.ExpressionEvaluator;
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hl7.fhir.instance.model.api.IAnyResource.SP_RES_ID;
+
+/**
+ * Checks that a decision applied as search constraints selects the same resources as the decision evaluated against
+ * the response. Searches are matched against the values indexed by the HAPI extractor, the same way the database does.
+ *
+ * @author Tadej Delopst
+ */
+public class SearchFilterTest extends TestCase {
+	private static final String GENDER_SYSTEM = "http://hl7.org/fhir/administrative-gender";
+
+	private final List<Patient> patients = patients();
+	private final Map<String, ca.uhn.fhir.context.RuntimeSearchParam> activeSearchParams = TestFixtures.activeSearchParams("Patient");
+
+	public void testTokenWithSystemIsApplied() {
+		assertSameEntries(valueSet("Patient.gender", GENDER_SYSTEM + "|female"), true);
+	}
+
+	public void testTokenWithoutSystemIsLeftToResponseFiltering() {
+		assertSameEntries(valueSet("Patient.gender", "female"), false);
+		assertSameEntries(valueSet("Patient.gender", "|female"), false);
+		assertSameEntries(valueSet("Patient.gender", GENDER_SYSTEM + "|female", "male"), false);
+	}
+
+	public void testExactStringIsApplied() {
+		assertSameEntries(valueSet("Patient.family", "Novak"), true);
+		assertSameEntries(valueSet("Patient.family", "novak"), true);
+	}
+
+	public void testStringWithEscapedCharactersIsLeftToResponseFiltering() {
+		assertSameEntries(valueSet("Patient.family", "Novak,Kranjc"), false);
+	}
+
+	public void testRelativeReferenceIsApplied() {
+		assertSameEntries(valueSet("Patient.organization", "Organization/o-1"), true);
+	}
+
+	public void testOtherReferencesAreLeftToResponseFiltering() {
+		assertSameEntries(valueSet("Patient.organization", "o-1"), false);
+		assertSameEntries(valueSet("Patient.organization", "http://example.org/fhir/Organization/o-1"), false);
+		assertSameEntries(valueSet("Patient.organization", "Organization/o-1/_history/1"), false);
+	}
+
+	public void testResultSetIsApplied() {
+		assertSameEntries(new ResultSetEvaluationExpression(Set.of("p-0", "p-3")), true);
+	}
+
+	public void testConjunctionIsApplied() {
+		assertSameEntries(and(valueSet("Patient.gender", GENDER_SYSTEM + "|female"), valueSet("Patient.organization", "Organization/o-1")), true);
+		assertSameEntries(and(new BooleanEvaluationExpression(true), valueSet("Patient.family", "Horvat")), true);
+	}
+
+	public void testLeafOfOtherResourceTypeIsApplied() {
+		assertSameEntries(and(valueSet("Encounter.status", "finished"), valueSet("Patient.family", "Horvat")), true);
+	}
+
+	public void testDisjunctionAndDenyAreLeftToResponseFiltering() {
+		assertSameEntries(new BooleanOperationEvaluationExpression(BooleanOperation.OR, valueSet("Patient.family", "Horvat"),
+																   valueSet("Patient.family", "Novak")), false);
+		assertSameEntries(new BooleanEvaluationExpression(false), false);
+	}
+
+	public void testUnsupportedParameterTypeIsLeftToResponseFiltering() {
+		assertSameEntries(valueSet("Patient.birthdate", "2000-01-01"), false);
+	}
+
+	private void assertSameEntries(EvaluationExpression decision, boolean expectApplied) {
+		SearchParameterMap params = new SearchParameterMap();
+		boolean applied = SearchFilter.apply(decision, params, activeSearchParams, "Patient", "POLICY");
+		assertEquals("Decision applied as search", expectApplied, applied);
+		if (!applied) {
+			assertTrue("Search parameters must be left untouched", params.isEmpty());
+			return;
+		}
+
+		ExpressionContext entryContext = TestFixtures.entryContext("Patient");
+		List<String> filtered = new ArrayList<>();
+		List<String> searched = new ArrayList<>();
+		for (Patient patient : patients) {
+			if (ExpressionEvaluator.evaluate(decision, entryContext.setEntryResource(patient), "POLICY")) {
+				filtered.add(patient.getIdElement().getIdPart());
+			}
+			if (matches(params, patient)) {
+				searched.add(patient.getIdElement().getIdPart());
+			}
+		}
+		assertEquals(filtered, searched);
+	}
+
+	private static boolean matches(SearchParameterMap params, Patient patient) {
+		for (Map.Entry<String, List<List<IQueryParameterType>>> param : params.entrySet()) {
+			for (List<IQueryParameterType> orList : param.getValue()) {
+				if (orList.stream().noneMatch(value -> matches(param.getKey(), value, patient))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean matches(String name, IQueryParameterType value, Patient patient) {
+		if (SP_RES_ID.equals(name)) {
+			return ((TokenParam)value).getValue().equals(patient.getIdElement().getIdPart());
+		} else if (value instanceof TokenParam token) {
+			for (BaseResourceIndexedSearchParam indexed : TestFixtures.EXTRACTOR.extractSearchParamTokens(patient)) {
+				if (indexed instanceof ResourceIndexedSearchParamToken indexedToken && name.equals(indexedToken.getParamName()) &&
+					token.getSystem().equals(indexedToken.getSystem()) && token.getValue().equals(indexedToken.getValue())) {
+					return true;
+				}
+			}
+		} else if (value instanceof StringParam string) {
+			assertTrue(string.isExact());
+			for (ResourceIndexedSearchParamString indexed : TestFixtures.EXTRACTOR.extractSearchParamStrings(patient)) {
+				if (name.equals(indexed.getParamName()) && string.getValue().equals(indexed.getValueExact())) {
+					return true;
+				}
+			}
+		} else if (value instanceof ReferenceParam reference) {
+			for (PathAndRef indexed : TestFixtures.EXTRACTOR.extractResourceLinks(patient, false)) {
+				if (name.equals(indexed.getSearchParamName()) && indexed.getRef() != null &&
+					reference.getValue().equals(indexed.getRef().getReferenceElement().toUnqualifiedVersionless().getValue())) {
+					return true;
+				}
+			}
+		} else {
+			fail("Unexpected search parameter " + value);
+		}
+		return false;
+	}
+
+	private static List<Patient> patients() {
+		String[] families = {"Novak", "Horvat", "novak", "Kranjc"};
+		List<Patient> patients = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Patient patient = new Patient();
+			patient.setId("Patient/p-" + i + "/_history/1");
+			patient.setGender(i % 2 == 0 ? Enumerations.AdministrativeGender.FEMALE : Enumerations.AdministrativeGender.MALE);
+			patient.addName().setFamily(families[i % families.length]).addGiven("Given" + i);
+			patient.setManagingOrganization(new Reference("Organization/o-" + (i % 3)));
+			patient.setBirthDateElement(new org.hl7.fhir.r4.model.DateType("2000-01-0" + (i + 1)));
+			patients.add(patient);
+		}
+		return patients;
+	}
+
+	private static EvaluationExpression valueSet(String path, String... values) {
+		return new ValueSetEvaluationExpression(path, Set.of(values));
+	}
+
+	private static EvaluationExpression and(EvaluationExpression left, EvaluationExpression right) {
+		return new BooleanOperationEvaluationExpression(BooleanOperation.AND, left, right);
+	}
+}
@@ -0,0 +1,128 @@
+package com.tadejd.dipllib;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.jpa.model.config.PartitionSettings;
+import ca.uhn.fhir.jpa.model.entity.StorageSettings;
+import ca.uhn.fhir.jpa.searchparam.extractor.ISearchParamExtractor;
+import ca.uhn.fhir.jpa.searchparam.extractor.SearchParamExtractorR4;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.SimpleBundleProvider;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import ca.uhn.fhir.rest.server.util.ISearchParamRegistry;
+import ca.uhn.fhir.rest.server.util.ResourceSearchParams;
+import com.tadejd.dipllib.evaluation.ExpressionContext;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * In-memory stand-ins for the parts of a HAPI FHIR JPA server the library uses. Search parameter values are extracted
+ * by the real R4 extractor, while DAOs are replaced by fixed answers.
+ *
+ * @author Tadej Delopst
+ */
+public final class TestFixtures {
+	public static final FhirContext FHIR_CONTEXT = FhirContext.forR4Cached();
+	public static final ISearchParamRegistry SEARCH_PARAM_REGISTRY = searchParamRegistry(TestFixtures::readSearchParams);
+	public static final ISearchParamExtractor EXTRACTOR =
+		new SearchParamExtractorR4(new StorageSettings(), new PartitionSettings(), FHIR_CONTEXT, SEARCH_PARAM_REGISTRY);
+
+	private TestFixtures() {
+		// Private constructor to prevent instantiation
+	}
+
+	/**
+	 * @return a registry that answers with the search parameters loaded by {@code loader}, called on every lookup
+	 */
+	public static ISearchParamRegistry searchParamRegistry(Function<String, ResourceSearchParams> loader) {
+		Map<String, ResourceSearchParams> searchParams = new ConcurrentHashMap<>();
+		InvocationHandler handler = (proxy, method, args) -> {
+			if (method.getName().equals("getActiveSearchParams") && args != null && args[0] instanceof String resourceName) {
+				return loader.apply(resourceName);
+			} else if (method.getName().equals("getActiveSearchParam") && args != null && args.length >= 2) {
+				return searchParams.computeIfAbsent((String)args[0], TestFixtures::readSearchParams).get((String)args[1]);
+			} else if (method.isDefault()) {
+				return InvocationHandler.invokeDefault(proxy, method, args);
+			}
+			return defaultValue(method.getReturnType());
+		};
+		return (ISearchParamRegistry)Proxy.newProxyInstance(ISearchParamRegistry.class.getClassLoader(),
+															 new Class<?>[]{ISearchParamRegistry.class}, handler);
+	}
+
+	public static ResourceSearchParams readSearchParams(String resourceName) {
+		ResourceSearchParams searchParams = new ResourceSearchParams(resourceName);
+		RuntimeResourceDefinition definition = FHIR_CONTEXT.getResourceDefinition(resourceName);
+		for (RuntimeSearchParam searchParam : definition.getSearchParams()) {
+			searchParams.put(searchParam.getName(), searchParam);
+		}
+		return searchParams;
+	}
+
+	public static Map<String, RuntimeSearchParam> activeSearchParams(String resourceName) {
+		ResourceSearchParams searchParams = readSearchParams(resourceName);
+		Map<String, RuntimeSearchParam> active = new HashMap<>();
+		searchParams.getSearchParamNames().forEach(name -> active.put(name, searchParams.get(name)));
+		return active;
+	}
+
+	/**
+	 * @return an entry view of a search context for the resource type, to evaluate decisions against stored resources
+	 */
+	public static ExpressionContext entryContext(String resourceName) {
+		Map<String, RuntimeSearchParam> activeSearchParams = activeSearchParams(resourceName);
+		return new ExpressionContext(RestOperationTypeEnum.SEARCH_TYPE, () -> null, () -> null, () -> activeSearchParams, EXTRACTOR)
+			.entryView();
+	}
+
+	/**
+	 * @return a DAO whose searches return the given resources, recording the number of searches in {@code searches}
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends IBaseResource> IFhirResourceDao<T> resourceDao(Class<T> resourceType, List<? extends IBaseResource> searchResults,
+																			 List<Object> searches) {
+		InvocationHandler handler = (proxy, method, args) -> switch (method.getName()) {
+			case "getResourceType" -> resourceType;
+			case "search" -> {
+				searches.add(args[0]);
+				yield new SimpleBundleProvider(new ArrayList<>(searchResults));
+			}
+			case "hashCode" -> System.identityHashCode(proxy);
+			case "equals" -> proxy == args[0];
+			case "toString" -> "TestDao[" + resourceType.getSimpleName() + "]";
+			default -> method.isDefault() ? InvocationHandler.invokeDefault(proxy, method, args) : defaultValue(method.getReturnType());
+		};
+		return (IFhirResourceDao<T>)Proxy.newProxyInstance(IFhirResourceDao.class.getClassLoader(),
+														   new Class<?>[]{IFhirResourceDao.class}, handler);
+	}
+
+	public static ServletRequestDetails request(String resourceName, RestOperationTypeEnum operationType) {
+		ServletRequestDetails requestDetails = new ServletRequestDetails();
+		requestDetails.setServer(new RestfulServer(FHIR_CONTEXT));
+		requestDetails.setResourceName(resourceName);
+		requestDetails.setRestOperationType(operationType);
+		return requestDetails;
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		} else if (type == int.class) {
+			return 0;
+		} else if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+}
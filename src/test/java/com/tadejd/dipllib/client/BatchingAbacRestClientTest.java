@@ -0,0 +1,123 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import junit.framework.TestCase;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * @author Tadej Delopst
+ */
+public class BatchingAbacRestClientTest extends TestCase {
+	@Override
+	protected void tearDown() {
+		SecurityContextHolder.clearContext();
+	}
+
+	public void testSmallCallIsSentAsIs() {
+		StubAbacRestClient server = new StubAbacRestClient(entry -> true);
+		BatchingAbacRestClient client = new BatchingAbacRestClient(server, 5, 2);
+
+		client.executeMulti("POLICY", entries(3));
+
+		assertEquals(1, server.calls.size());
+		assertEquals(3, server.calls.get(0).size());
+	}
+
+	public void testLargeCallIsSplitAndReassembledInOrder() {
+		StubAbacRestClient server = new StubAbacRestClient(entry -> (Integer)entry.get("index") % 2 == 0);
+		BatchingAbacRestClient client = new BatchingAbacRestClient(server, 3, 2);
+
+		List<EvaluationExpression> decisions = client.executeMulti("POLICY", entries(7));
+
+		assertEquals(List.of(3, 3, 1), server.calls.stream().map(List::size).toList());
+		for (int i = 0; i < decisions.size(); i++) {
+			assertEquals(i % 2 == 0 ? StubAbacRestClient.ALLOW : StubAbacRestClient.DENY, decisions.get(i));
+		}
+	}
+
+	public void testBatchesInFlightAreLimited() {
+		PendingAbacRestClient server = new PendingAbacRestClient();
+		BatchingAbacRestClient client = new BatchingAbacRestClient(server, 2, 2);
+
+		CompletableFuture<List<EvaluationExpression>> decisions = client.executeMultiAsync("POLICY", entries(8));
+		assertEquals(2, server.calls.size());
+
+		server.call(1).answer(StubAbacRestClient.DENY);
+		assertEquals(3, server.calls.size());
+		server.call(0).answer(StubAbacRestClient.ALLOW);
+		assertEquals(4, server.calls.size());
+		server.call(2).answer(StubAbacRestClient.ALLOW);
+		assertFalse(decisions.isDone());
+		server.call(3).answer(StubAbacRestClient.ALLOW);
+
+		List<EvaluationExpression> result = decisions.join();
+		assertEquals(8, result.size());
+		assertEquals(StubAbacRestClient.ALLOW, result.get(1));
+		assertEquals(StubAbacRestClient.DENY, result.get(2));
+		assertEquals(StubAbacRestClient.DENY, result.get(3));
+		assertEquals(StubAbacRestClient.ALLOW, result.get(4));
+	}
+
+	public void testFailedBatchStopsRemainingBatches() {
+		PendingAbacRestClient server = new PendingAbacRestClient();
+		BatchingAbacRestClient client = new BatchingAbacRestClient(server, 1, 1);
+
+		CompletableFuture<List<EvaluationExpression>> decisions = client.executeMultiAsync("POLICY", entries(3));
+		IllegalStateException failure = new IllegalStateException("ABAC server unavailable");
+		server.call(0).fail(failure);
+
+		assertEquals(1, server.calls.size());
+		try {
+			decisions.join();
+			fail("Expected the call to fail");
+		} catch (CompletionException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	public void testRejectsBatchAnswerOfWrongSize() {
+		PendingAbacRestClient server = new PendingAbacRestClient();
+		BatchingAbacRestClient client = new BatchingAbacRestClient(server, 2, 2);
+
+		CompletableFuture<List<EvaluationExpression>> decisions = client.executeMultiAsync("POLICY", entries(4));
+		server.call(0).response().complete(List.of(StubAbacRestClient.ALLOW));
+		server.call(1).answer(StubAbacRestClient.ALLOW);
+
+		try {
+			decisions.join();
+			fail("Expected a mismatched answer to be rejected");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	public void testLaterBatchesAreSentWithCallerAuthentication() throws Exception {
+		SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("alice", "secret"));
+		PendingAbacRestClient server = new PendingAbacRestClient();
+		BatchingAbacRestClient client = new BatchingAbacRestClient(server, 1, 1);
+		client.executeMultiAsync("POLICY", entries(2));
+
+		// The first batch completes on a thread without authentication, which sends the second batch
+		Thread completer = new Thread(() -> server.call(0).answer(StubAbacRestClient.ALLOW));
+		completer.start();
+		completer.join();
+
+		assertEquals(2, server.calls.size());
+		assertEquals("alice", server.call(1).authentication().getName());
+	}
+
+	private static List<Map<String, Object>> entries(int count) {
+		List<Map<String, Object>> entries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			entries.add(Map.of("index", i));
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,127 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.tadejd.dipllib.metrics.AbacMetrics;
+import junit.framework.TestCase;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author Tadej Delopst
+ */
+public class CachingAbacRestClientTest extends TestCase {
+	private StubAbacRestClient server;
+	private CachingAbacRestClient client;
+
+	@Override
+	protected void setUp() {
+		server = new StubAbacRestClient(entry -> "female".equals(entry.get("gender")));
+		client = new CachingAbacRestClient(server, new DecisionCache(Duration.ofMinutes(1), 100));
+		authenticate("alice");
+	}
+
+	@Override
+	protected void tearDown() {
+		SecurityContextHolder.clearContext();
+	}
+
+	public void testSendsOnlyMissesAndMergesByPosition() {
+		client.executeMulti("POLICY", List.of(gender("female")));
+
+		List<EvaluationExpression> decisions = client.executeMulti("POLICY", List.of(gender("male"), gender("female"), gender("other")));
+
+		assertEquals(List.of(StubAbacRestClient.DENY, StubAbacRestClient.ALLOW, StubAbacRestClient.DENY), decisions);
+		assertEquals(List.of(gender("male"), gender("other")), server.calls.get(1));
+	}
+
+	public void testFullHitDoesNotCallServer() {
+		client.executeMulti("POLICY", List.of(gender("female"), gender("male")));
+
+		client.executeMulti("POLICY", List.of(gender("male"), gender("female")));
+		client.executeMultiAsync("POLICY", List.of(gender("female"))).join();
+
+		assertEquals(1, server.calls.size());
+	}
+
+	public void testDecisionsAreCachedPerUser() {
+		client.executeMulti("POLICY", List.of(gender("female")));
+		authenticate("bob");
+
+		client.executeMulti("POLICY", List.of(gender("female")));
+
+		assertEquals(2, server.calls.size());
+	}
+
+	public void testRejectsResponseOfWrongSize() {
+		CachingAbacRestClient broken = new CachingAbacRestClient(new StubAbacRestClient(entry -> true) {
+			@Override
+			public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+				return List.of();
+			}
+		}, new DecisionCache(Duration.ofMinutes(1), 100));
+
+		try {
+			broken.executeMulti("POLICY", List.of(gender("female")));
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			assertEquals(0, broken.getCache().size());
+		}
+	}
+
+	public void testMissingKeysArePassedThroughDecorators() {
+		List<List<DecisionCache.Key>> received = new ArrayList<>();
+		KeyedAbacRestClient keyedServer = new KeyedStubAbacRestClient(received);
+		CachingAbacRestClient chain = new CachingAbacRestClient(new MeteredAbacRestClient(new BatchingAbacRestClient(keyedServer, 1, 1),
+																						  AbacMetrics.NOOP),
+																new DecisionCache(Duration.ofMinutes(1), 100));
+		chain.executeMulti("POLICY", List.of(gender("female")));
+
+		chain.executeMulti("POLICY", List.of(gender("male"), gender("female"), gender("other")));
+
+		List<DecisionCache.Key> missing = CachingAbacRestClient.keys("POLICY", List.of(gender("male"), gender("other")));
+		assertEquals(List.of(missing.subList(0, 1), missing.subList(1, 2)), received.subList(1, 3));
+	}
+
+	/**
+	 * Records the keys it receives; calls without keys fail.
+	 */
+	private static class KeyedStubAbacRestClient extends StubAbacRestClient implements KeyedAbacRestClient {
+		private final List<List<DecisionCache.Key>> received;
+
+		private KeyedStubAbacRestClient(List<List<DecisionCache.Key>> received) {
+			super(entry -> true);
+			this.received = received;
+		}
+
+		@Override
+		public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+			throw new IllegalStateException("Called without keys");
+		}
+
+		@Override
+		public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context, List<DecisionCache.Key> keys) {
+			received.add(List.copyOf(keys));
+			return super.executeMulti(policyName, context);
+		}
+
+		@Override
+		public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context,
+																				List<DecisionCache.Key> keys) {
+			return CompletableFuture.completedFuture(executeMulti(policyName, context, keys));
+		}
+	}
+
+	private static Map<String, Object> gender(String gender) {
+		return Map.of("gender", gender);
+	}
+
+	private static void authenticate(String user) {
+		SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(user, "token-" + user));
+	}
+}
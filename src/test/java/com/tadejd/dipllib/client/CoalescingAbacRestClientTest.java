@@ -0,0 +1,69 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import junit.framework.TestCase;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author Tadej Delopst
+ */
+public class CoalescingAbacRestClientTest extends TestCase {
+	private static final List<Map<String, Object>> CONTEXT = List.of(Map.of("gender", "female"));
+
+	private final PendingAbacRestClient server = new PendingAbacRestClient();
+	private final CoalescingAbacRestClient client = new CoalescingAbacRestClient(server, Duration.ofSeconds(5));
+
+	@Override
+	protected void tearDown() {
+		SecurityContextHolder.clearContext();
+	}
+
+	public void testIdenticalCallsShareOneRequest() {
+		authenticate("alice", "token-1");
+
+		CompletableFuture<List<EvaluationExpression>> first = client.executeMultiAsync("POLICY", CONTEXT);
+		CompletableFuture<List<EvaluationExpression>> second = client.executeMultiAsync("POLICY", CONTEXT);
+		server.call(0).answer(StubAbacRestClient.ALLOW);
+
+		assertEquals(1, server.calls.size());
+		assertEquals(List.of(StubAbacRestClient.ALLOW), first.join());
+		assertEquals(List.of(StubAbacRestClient.ALLOW), second.join());
+	}
+
+	public void testCallsWithOtherCredentialsAreNotShared() {
+		authenticate("alice", "token-1");
+		CompletableFuture<List<EvaluationExpression>> first = client.executeMultiAsync("POLICY", CONTEXT);
+		authenticate("alice", "token-2");
+		CompletableFuture<List<EvaluationExpression>> second = client.executeMultiAsync("POLICY", CONTEXT);
+
+		assertEquals(2, server.calls.size());
+		assertEquals("token-2", server.call(1).authentication().getCredentials());
+		server.call(0).answer(StubAbacRestClient.ALLOW);
+		server.call(1).answer(StubAbacRestClient.DENY);
+		assertEquals(List.of(StubAbacRestClient.ALLOW), first.join());
+		assertEquals(List.of(StubAbacRestClient.DENY), second.join());
+	}
+
+	public void testCallsThroughCacheShareOneRequest() {
+		authenticate("alice", "token-1");
+		CachingAbacRestClient caching = new CachingAbacRestClient(client, new DecisionCache(Duration.ofMinutes(1), 100));
+
+		CompletableFuture<List<EvaluationExpression>> first = caching.executeMultiAsync("POLICY", CONTEXT);
+		CompletableFuture<List<EvaluationExpression>> second = caching.executeMultiAsync("POLICY", CONTEXT);
+		server.call(0).answer(StubAbacRestClient.ALLOW);
+
+		assertEquals(1, server.calls.size());
+		assertEquals(List.of(StubAbacRestClient.ALLOW), first.join());
+		assertEquals(List.of(StubAbacRestClient.ALLOW), second.join());
+	}
+
+	private static void authenticate(String user, String token) {
+		SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(user, token));
+	}
+}
@@ -0,0 +1,98 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.BooleanEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import junit.framework.TestCase;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Tadej Delopst
+ */
+public class DecisionCacheTest extends TestCase {
+	private static final EvaluationExpression ALLOW = new BooleanEvaluationExpression(true);
+	private static final EvaluationExpression DENY = new BooleanEvaluationExpression(false);
+
+	public void testReturnsCachedDecisionsByPosition() {
+		DecisionCache cache = new DecisionCache(Duration.ofMinutes(1), 10);
+		cache.putAll(List.of(key("alice", "a"), key("alice", "b")), List.of(ALLOW, DENY));
+
+		EvaluationExpression[] decisions = cache.getAll(List.of(key("alice", "b"), key("alice", "c"), key("alice", "a")));
+
+		assertSame(DENY, decisions[0]);
+		assertNull(decisions[1]);
+		assertSame(ALLOW, decisions[2]);
+	}
+
+	public void testDecisionsAreNotSharedAcrossUsersOrPolicies() {
+		DecisionCache cache = new DecisionCache(Duration.ofMinutes(1), 10);
+		cache.putAll(List.of(key("alice", "a")), List.of(ALLOW));
+
+		EvaluationExpression[] decisions = cache.getAll(List.of(key("bob", "a"),
+																new DecisionCache.Key("alice", "OTHER_POLICY", Map.of("gender", "a"))));
+
+		assertEquals(Arrays.asList(null, null), Arrays.asList(decisions));
+	}
+
+	public void testExpiredDecisionsAreMissing() {
+		DecisionCache cache = new DecisionCache(Duration.ZERO, 10);
+		cache.putAll(List.of(key("alice", "a")), List.of(ALLOW));
+
+		assertNull(cache.getAll(List.of(key("alice", "a")))[0]);
+		assertEquals(0, cache.size());
+	}
+
+	public void testExpiredDecisionsAreServedStaleWithinMaxStale() {
+		DecisionCache cache = new DecisionCache(Duration.ZERO, 10, Duration.ofMinutes(1));
+		cache.putAll(List.of(key("alice", "a")), List.of(ALLOW));
+
+		assertNull(cache.getAll(List.of(key("alice", "a")))[0]);
+		assertSame(ALLOW, cache.getAllStale(List.of(key("alice", "a")))[0]);
+	}
+
+	public void testEvictsLeastRecentlyUsed() {
+		DecisionCache cache = new DecisionCache(Duration.ofMinutes(1), 2);
+		cache.putAll(List.of(key("alice", "a"), key("alice", "b")), List.of(ALLOW, ALLOW));
+		cache.getAll(List.of(key("alice", "a")));
+		cache.putAll(List.of(key("alice", "c")), List.of(ALLOW));
+
+		EvaluationExpression[] decisions = cache.getAll(List.of(key("alice", "a"), key("alice", "b"), key("alice", "c")));
+
+		assertSame(ALLOW, decisions[0]);
+		assertNull(decisions[1]);
+		assertSame(ALLOW, decisions[2]);
+	}
+
+	public void testMissingDecisionsAreNotCached() {
+		DecisionCache cache = new DecisionCache(Duration.ofMinutes(1), 10);
+		cache.putAll(List.of(key("alice", "a")), Arrays.asList((EvaluationExpression)null));
+
+		assertEquals(0, cache.size());
+	}
+
+	public void testInvalidatesPolicy() {
+		DecisionCache cache = new DecisionCache(Duration.ofMinutes(1), 10);
+		cache.putAll(List.of(key("alice", "a"), new DecisionCache.Key("alice", "OTHER_POLICY", Map.of())), List.of(ALLOW, ALLOW));
+
+		cache.invalidate("POLICY");
+
+		assertEquals(1, cache.size());
+		assertNull(cache.getAll(List.of(key("alice", "a")))[0]);
+	}
+
+	public void testRejectsNonPositiveSize() {
+		try {
+			new DecisionCache(Duration.ofMinutes(1), 0);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static DecisionCache.Key key(String user, String gender) {
+		return new DecisionCache.Key(user, "POLICY", Map.of("gender", gender));
+	}
+}
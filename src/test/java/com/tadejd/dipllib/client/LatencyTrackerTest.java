@@ -0,0 +1,46 @@
+package com.tadejd.dipllib.client;
+
+import junit.framework.TestCase;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Tadej Delopst
+ */
+public class LatencyTrackerTest extends TestCase {
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	public void testMaximumTimeoutUntilEnoughSamples() {
+		LatencyTracker tracker = new LatencyTracker(Duration.ofMillis(1), Duration.ofSeconds(10), 0.5, 2.0);
+
+		record(tracker, 19, 10 * MILLIS);
+
+		assertEquals(tracker.maxTimeoutNanos(), tracker.timeoutNanos());
+	}
+
+	public void testTimeoutIsMultipleOfPercentile() {
+		LatencyTracker tracker = new LatencyTracker(Duration.ofMillis(1), Duration.ofSeconds(10), 0.5, 2.0);
+
+		record(tracker, 20, 10 * MILLIS);
+
+		assertEquals(20 * MILLIS, tracker.timeoutNanos());
+	}
+
+	public void testTimedOutCallsRaiseTimeout() {
+		LatencyTracker tracker = new LatencyTracker(Duration.ofMillis(1), Duration.ofSeconds(10), 0.9, 2.0);
+
+		record(tracker, 17, 10 * MILLIS);
+		for (int i = 0; i < 3; i++) {
+			tracker.recordTimeout(100 * MILLIS);
+		}
+
+		assertEquals(200 * MILLIS, tracker.timeoutNanos());
+	}
+
+	private static void record(LatencyTracker tracker, int calls, long latencyNanos) {
+		for (int i = 0; i < calls; i++) {
+			tracker.record(latencyNanos);
+		}
+	}
+}
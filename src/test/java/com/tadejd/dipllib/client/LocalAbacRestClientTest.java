@@ -0,0 +1,132 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.tadejd.dipllib.config.AbacProperties;
+import com.tadejd.dipllib.config.AbacProperties.LocalRules;
+import junit.framework.TestCase;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Tadej Delopst
+ */
+public class LocalAbacRestClientTest extends TestCase {
+	private static final EvaluationExpression ALLOW = StubAbacRestClient.ALLOW;
+	private static final EvaluationExpression DENY = StubAbacRestClient.DENY;
+
+	@Override
+	protected void setUp() {
+		SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("alice", "secret", "ROLE_NURSE"));
+	}
+
+	@Override
+	protected void tearDown() {
+		SecurityContextHolder.clearContext();
+	}
+
+	public void testAllConditionsMustHold() {
+		LocalAbacRestClient client = client(rules(LocalRules.Match.ALL, false,
+												  condition("gender", LocalRules.Operator.EQUALS, "female"),
+												  condition("roles", LocalRules.Operator.EQUALS, "ROLE_NURSE")));
+
+		assertEquals(List.of(ALLOW, DENY, DENY), client.executeMulti("POLICY", List.of(Map.of("gender", "female"),
+																					   Map.of("gender", "male"),
+																					   Map.of())));
+	}
+
+	public void testAnyConditionMayHold() {
+		LocalAbacRestClient client = client(rules(LocalRules.Match.ANY, false,
+												  condition("roles", LocalRules.Operator.EQUALS, "ROLE_ADMIN"),
+												  condition("gender", LocalRules.Operator.NOT_EQUALS, "male"),
+												  condition("team", LocalRules.Operator.PRESENT)));
+
+		assertEquals(List.of(ALLOW, DENY, ALLOW), client.executeMulti("POLICY", List.of(Map.of("gender", "female"),
+																					   Map.of("gender", "male"),
+																					   Map.of("gender", "male", "team", List.of("oncology")))));
+	}
+
+	public void testCollectionAttributeMatchesAnyValue() {
+		LocalAbacRestClient client = client(rules(LocalRules.Match.ALL, false, condition("team", LocalRules.Operator.EQUALS, "oncology")));
+
+		assertEquals(List.of(ALLOW, DENY), client.executeMulti("POLICY", List.of(Map.of("team", List.of("cardiology", "oncology")),
+																				 Map.of("team", List.of("cardiology")))));
+	}
+
+	public void testContextCannotOverrideAuthenticatedUser() {
+		LocalAbacRestClient client = client(rules(LocalRules.Match.ANY, false,
+												  condition("user", LocalRules.Operator.EQUALS, "admin"),
+												  condition("roles", LocalRules.Operator.EQUALS, "ROLE_ADMIN")));
+
+		assertEquals(List.of(DENY), client.executeMulti("POLICY", List.of(Map.of("user", "admin", "roles", List.of("ROLE_ADMIN")))));
+		SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("admin", "secret"));
+		assertEquals(List.of(ALLOW), client.executeMulti("POLICY", List.of(Map.of())));
+	}
+
+	public void testMappingOfUserAttributeIsRejected() {
+		AbacProperties.PolicyProperties policy = new AbacProperties.PolicyProperties();
+		policy.setName("POLICY");
+		policy.setEngine(AbacProperties.PolicyProperties.Engine.LOCAL);
+		policy.setRules(rules(LocalRules.Match.ALL, false, condition("roles", LocalRules.Operator.EQUALS, "ROLE_ADMIN")));
+		AbacProperties.PolicyProperties.Mapping mapping = new AbacProperties.PolicyProperties.Mapping();
+		mapping.setContextAttribute("roles");
+		mapping.setExpression("Patient.meta.tag.code");
+		policy.setMappings(List.of(mapping));
+		AbacProperties properties = new AbacProperties();
+		properties.setPolicies(List.of(policy));
+
+		try {
+			LocalAbacRestClient.fromProperties(properties);
+			fail("Expected a mapping of the roles attribute to be rejected");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("roles"));
+		}
+	}
+
+	public void testRoutingSendsOtherPoliciesToRemote() {
+		StubAbacRestClient remote = new StubAbacRestClient(entry -> true);
+		RoutingAbacRestClient client = new RoutingAbacRestClient(
+			client(rules(LocalRules.Match.ALL, false, condition("gender", LocalRules.Operator.EQUALS, "female"))), remote);
+
+		assertEquals(List.of(DENY), client.executeMulti("POLICY", List.of(Map.of("gender", "male"))));
+		assertEquals(List.of(ALLOW), client.executeMulti("REMOTE_POLICY", List.of(Map.of("gender", "male"))));
+		assertEquals(1, remote.calls.size());
+	}
+
+	public void testRoutingSendsOnlyDeniedEntriesToRemoteFallback() {
+		StubAbacRestClient remote = new StubAbacRestClient(entry -> "other".equals(entry.get("gender")));
+		RoutingAbacRestClient client = new RoutingAbacRestClient(
+			client(rules(LocalRules.Match.ALL, true, condition("gender", LocalRules.Operator.EQUALS, "female"))), remote);
+		List<Map<String, Object>> context = List.of(Map.of("gender", "male"), Map.of("gender", "female"), Map.of("gender", "other"));
+
+		assertEquals(List.of(DENY, ALLOW, ALLOW), client.executeMulti("POLICY", context));
+		assertEquals(List.of(DENY, ALLOW, ALLOW), client.executeMultiAsync("POLICY", context).join());
+		assertEquals(List.of(Map.of("gender", "male"), Map.of("gender", "other")), remote.calls.get(0));
+		assertEquals(2, remote.calls.size());
+
+		client.executeMulti("POLICY", List.of(Map.of("gender", "female")));
+		assertEquals(2, remote.calls.size());
+	}
+
+	private static LocalAbacRestClient client(LocalRules rules) {
+		return new LocalAbacRestClient(Map.of("POLICY", rules));
+	}
+
+	private static LocalRules rules(LocalRules.Match match, boolean remoteFallback, LocalRules.Condition... conditions) {
+		LocalRules rules = new LocalRules();
+		rules.setMatch(match);
+		rules.setRemoteFallback(remoteFallback);
+		rules.setConditions(List.of(conditions));
+		return rules;
+	}
+
+	private static LocalRules.Condition condition(String attribute, LocalRules.Operator operator, String... values) {
+		LocalRules.Condition condition = new LocalRules.Condition();
+		condition.setAttribute(attribute);
+		condition.setOperator(operator);
+		condition.setValues(List.of(values));
+		return condition;
+	}
+}
@@ -0,0 +1,52 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.tadejd.dipllib.metrics.AbacMetrics;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * @author Tadej Delopst
+ */
+public class MeteredAbacRestClientTest extends TestCase {
+	private final List<String> requests = new ArrayList<>();
+	private final AbacMetrics metrics = new AbacMetrics() {
+		@Override
+		public void recordDecisionRequest(String policyName, int contextEntries, long durationNanos, boolean success) {
+			requests.add(policyName + ":" + contextEntries + ":" + success);
+		}
+	};
+
+	public void testAsyncCallIsRecorded() {
+		MeteredAbacRestClient client = new MeteredAbacRestClient(new StubAbacRestClient(entry -> true), metrics);
+
+		client.executeMultiAsync("POLICY", List.of(Map.of(), Map.of())).join();
+
+		assertEquals(List.of("POLICY:2:true"), requests);
+	}
+
+	public void testSynchronousFailureIsReturnedAsFailedFuture() {
+		IllegalStateException failure = new IllegalStateException("unavailable");
+		MeteredAbacRestClient client = new MeteredAbacRestClient(new StubAbacRestClient(entry -> true) {
+			@Override
+			public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+				throw failure;
+			}
+		}, metrics);
+
+		CompletableFuture<List<EvaluationExpression>> response = client.executeMultiAsync("POLICY", List.of(Map.of()));
+
+		try {
+			response.join();
+			fail("Expected the failure of the call");
+		} catch (CompletionException e) {
+			assertSame(failure, e.getCause());
+		}
+		assertEquals(List.of("POLICY:1:false"), requests);
+	}
+}
@@ -0,0 +1,60 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Records every call and leaves it pending until the test answers it, to control the order in which calls complete.
+ *
+ * @author Tadej Delopst
+ */
+class PendingAbacRestClient implements AbacRestClient {
+	final List<Call> calls = Collections.synchronizedList(new ArrayList<>());
+
+	@Override
+	public EvaluationExpression execute(String policyName, Map<String, String> context) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+		try {
+			return executeMultiAsync(policyName, context).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public CompletableFuture<List<EvaluationExpression>> executeMultiAsync(String policyName, List<Map<String, Object>> context) {
+		Call call = new Call(policyName, List.copyOf(context), SecurityContextHolder.getContext().getAuthentication(), new CompletableFuture<>());
+		calls.add(call);
+		return call.response();
+	}
+
+	Call call(int index) {
+		return calls.get(index);
+	}
+
+	record Call(String policyName, List<Map<String, Object>> context, Authentication authentication,
+				CompletableFuture<List<EvaluationExpression>> response) {
+		void answer(EvaluationExpression decision) {
+			response.complete(Collections.nCopies(context.size(), decision));
+		}
+
+		void fail(RuntimeException error) {
+			response.completeExceptionally(error);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import com.tadejd.dipllib.config.AbacProperties;
+import com.tadejd.dipllib.metrics.AbacMetrics;
+import junit.framework.TestCase;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * @author Tadej Delopst
+ */
+public class ResilientAbacRestClientTest extends TestCase {
+	private static final List<Map<String, Object>> CONTEXT = List.of(Map.of("gender", "female"));
+
+	private final PendingAbacRestClient server = new PendingAbacRestClient();
+
+	public void testTimedOutCallKeepsBulkheadSlotUntilItEnds() {
+		AbacProperties.Resilience resilience = resilience(Duration.ofMillis(50), Duration.ofMillis(50));
+		resilience.setMaxConcurrentCalls(1);
+		resilience.setMaxWait(Duration.ZERO);
+		ResilientAbacRestClient client = client(resilience);
+
+		assertEquals(List.of(StubAbacRestClient.DENY), client.executeMulti("POLICY", CONTEXT));
+		// The timed-out call is still running, so there is no slot for another one
+		assertEquals(List.of(StubAbacRestClient.DENY), client.executeMulti("POLICY", CONTEXT));
+		assertEquals(1, server.calls.size());
+		assertFalse(server.call(0).response().isDone());
+
+		server.call(0).answer(StubAbacRestClient.ALLOW);
+		CompletableFuture<List<EvaluationExpression>> next = client.executeMultiAsync("POLICY", CONTEXT);
+		assertEquals(2, server.calls.size());
+		server.call(1).answer(StubAbacRestClient.ALLOW);
+		assertEquals(List.of(StubAbacRestClient.ALLOW), next.join());
+	}
+
+	public void testCancellationIsNotCountedAsSuccess() {
+		AbacProperties.Resilience resilience = resilience(Duration.ofSeconds(5), Duration.ofSeconds(5));
+		resilience.setSlidingWindowSize(2);
+		resilience.setMinimumCalls(2);
+		resilience.setFailureRateThreshold(1.0);
+		ResilientAbacRestClient client = client(resilience);
+
+		failCall(client, CONTEXT, 0);
+		CompletableFuture<List<EvaluationExpression>> cancelled = client.executeMultiAsync("POLICY", CONTEXT);
+		server.call(1).response().cancel(true);
+		try {
+			cancelled.join();
+			fail("Expected the cancellation to be passed on");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof CancellationException);
+		}
+		failCall(client, CONTEXT, 2);
+
+		assertEquals(CircuitBreaker.State.OPEN, client.getCircuitState());
+	}
+
+	public void testHalfOpenTrialGetsMaximumTimeout() throws Exception {
+		AbacProperties.Resilience resilience = resilience(Duration.ofMillis(20), Duration.ofSeconds(5));
+		resilience.setSlidingWindowSize(40);
+		resilience.setMinimumCalls(40);
+		resilience.setOpenDuration(Duration.ZERO);
+		ResilientAbacRestClient client = client(resilience);
+		// Fast answers bring the timeout down to its minimum, failures then open the circuit
+		int calls = 0;
+		for (; calls < 20; calls++) {
+			CompletableFuture<List<EvaluationExpression>> response = client.executeMultiAsync("POLICY", CONTEXT);
+			server.call(calls).answer(StubAbacRestClient.ALLOW);
+			response.join();
+		}
+		for (; client.getCircuitState() == CircuitBreaker.State.CLOSED; calls++) {
+			failCall(client, CONTEXT, calls);
+		}
+
+		CompletableFuture<List<EvaluationExpression>> trial = client.executeMultiAsync("POLICY", CONTEXT);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, client.getCircuitState());
+		Thread.sleep(100);
+		assertFalse(trial.isDone());
+		server.call(calls).answer(StubAbacRestClient.ALLOW);
+
+		assertEquals(List.of(StubAbacRestClient.ALLOW), trial.join());
+		assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitState());
+	}
+
+	public void testCachedDecisionsAreServedWhileCircuitIsOpen() {
+		AbacProperties.Resilience resilience = resilience(Duration.ofSeconds(5), Duration.ofSeconds(5));
+		resilience.setSlidingWindowSize(2);
+		resilience.setMinimumCalls(2);
+		resilience.setFailureRateThreshold(1.0);
+		ResilientAbacRestClient resilient = client(resilience);
+		DecisionCache cache = new DecisionCache(Duration.ofMinutes(1), 100);
+		CachingAbacRestClient client = new CachingAbacRestClient(resilient, cache);
+		List<Map<String, Object>> male = List.of(Map.of("gender", "male"));
+
+		CompletableFuture<List<EvaluationExpression>> cached = client.executeMultiAsync("POLICY", CONTEXT);
+		server.call(0).answer(StubAbacRestClient.ALLOW);
+		cached.join();
+		failCall(client, male, 1);
+		failCall(client, male, 2);
+		assertEquals(CircuitBreaker.State.OPEN, resilient.getCircuitState());
+
+		assertEquals(List.of(StubAbacRestClient.ALLOW), client.executeMulti("POLICY", CONTEXT));
+		assertEquals(List.of(StubAbacRestClient.DENY), client.executeMulti("POLICY", male));
+		assertEquals(3, server.calls.size());
+		// The fallback decision is not cached, so the entry is sent again once the server is back
+		assertNull(cache.getAll(CachingAbacRestClient.keys("POLICY", male))[0]);
+	}
+
+	public void testFallbacksAreCountedByReason() {
+		AbacProperties.Resilience resilience = resilience(Duration.ofSeconds(5), Duration.ofSeconds(5));
+		resilience.setSlidingWindowSize(1);
+		resilience.setMinimumCalls(1);
+		resilience.setFailureRateThreshold(1.0);
+		List<String> fallbacks = new ArrayList<>();
+		ResilientAbacRestClient client = new ResilientAbacRestClient(server, resilience, Set.of(), null, new AbacMetrics() {
+			@Override
+			public void recordFallback(String policyName, String reason) {
+				fallbacks.add(policyName + ":" + reason);
+			}
+		});
+
+		failCall(client, CONTEXT, 0);
+		assertEquals(CircuitBreaker.State.OPEN, client.getCircuitState());
+		client.executeMulti("POLICY", CONTEXT);
+		client.executeMulti("POLICY", CONTEXT);
+
+		assertEquals(List.of("POLICY:error", "POLICY:circuit_open", "POLICY:circuit_open"), fallbacks);
+		assertEquals(1, server.calls.size());
+	}
+
+	private void failCall(AbacRestClient client, List<Map<String, Object>> context, int call) {
+		CompletableFuture<List<EvaluationExpression>> response = client.executeMultiAsync("POLICY", context);
+		server.call(call).fail(new IllegalStateException("unavailable"));
+		assertEquals(List.of(StubAbacRestClient.DENY), response.join());
+	}
+
+	private ResilientAbacRestClient client(AbacProperties.Resilience resilience) {
+		return new ResilientAbacRestClient(server, resilience, Set.of(), null);
+	}
+
+	private static AbacProperties.Resilience resilience(Duration minTimeout, Duration maxTimeout) {
+		AbacProperties.Resilience resilience = new AbacProperties.Resilience();
+		resilience.setMinTimeout(minTimeout);
+		resilience.setMaxTimeout(maxTimeout);
+		return resilience;
+	}
+}
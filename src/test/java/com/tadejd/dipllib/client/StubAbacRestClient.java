@@ -0,0 +1,42 @@
+package com.tadejd.dipllib.client;
+
+import care.better.abac.policy.execute.evaluation.BooleanEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Answers every context entry with an allow or deny decision and records the calls it receives.
+ *
+ * @author Tadej Delopst
+ */
+class StubAbacRestClient implements AbacRestClient {
+	static final EvaluationExpression ALLOW = new BooleanEvaluationExpression(true);
+	static final EvaluationExpression DENY = new BooleanEvaluationExpression(false);
+
+	final List<List<Map<String, Object>>> calls = Collections.synchronizedList(new ArrayList<>());
+	private final Predicate<Map<String, Object>> allowed;
+
+	StubAbacRestClient(Predicate<Map<String, Object>> allowed) {
+		this.allowed = allowed;
+	}
+
+	@Override
+	public EvaluationExpression execute(String policyName, Map<String, String> context) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public List<EvaluationExpression> executeMulti(String policyName, List<Map<String, Object>> context) {
+		calls.add(List.copyOf(context));
+		List<EvaluationExpression> decisions = new ArrayList<>(context.size());
+		for (Map<String, Object> entry : context) {
+			decisions.add(allowed.test(entry) ? ALLOW : DENY);
+		}
+		return decisions;
+	}
+}
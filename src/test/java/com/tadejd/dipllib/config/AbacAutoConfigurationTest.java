@@ -0,0 +1,33 @@
+package com.tadejd.dipllib.config;
+
+import com.tadejd.dipllib.metrics.AbacMetrics;
+import com.tadejd.dipllib.metrics.MicrometerAbacMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import junit.framework.TestCase;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+/**
+ * @author Tadej Delopst
+ */
+public class AbacAutoConfigurationTest extends TestCase {
+	public void testMetricsArePublishedToMeterRegistry() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+		beanFactory.registerSingleton("meterRegistry", registry);
+
+		AbacMetrics metrics = new AbacAutoConfiguration.AbacMetricsConfiguration()
+			.abacMetrics(beanFactory.getBeanProvider(MeterRegistry.class));
+		metrics.recordCoalescedRequest("POLICY");
+
+		assertTrue(metrics instanceof MicrometerAbacMetrics);
+		assertEquals(1.0, registry.get("abac.client.coalesced").tag("policy", "POLICY").counter().count());
+	}
+
+	public void testMetricsAreDisabledWithoutMeterRegistry() {
+		AbacMetrics metrics = new AbacAutoConfiguration.AbacMetricsConfiguration()
+			.abacMetrics(new DefaultListableBeanFactory().getBeanProvider(MeterRegistry.class));
+
+		assertSame(AbacMetrics.NOOP, metrics);
+	}
+}
@@ -0,0 +1,90 @@
+package com.tadejd.dipllib.evaluation;
+
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import care.better.abac.policy.execute.evaluation.ResultSetEvaluationExpression;
+import com.tadejd.dipllib.TestFixtures;
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Tadej Delopst
+ */
+public class ExpressionContextTest extends TestCase {
+	private final Map<String, RuntimeSearchParam> activeSearchParams = TestFixtures.activeSearchParams("Patient");
+
+	public void testCreateHasNoId() {
+		Patient patient = patient("p-1");
+		ExpressionContext context = context(RestOperationTypeEnum.CREATE, patient);
+
+		assertNull(context.getId());
+		assertFalse(ExpressionEvaluator.evaluate(new ResultSetEvaluationExpression(Set.of("p-1")), context, "test"));
+	}
+
+	public void testCreateEntryViewHasNoId() {
+		Patient patient = patient("p-1");
+		ExpressionContext entryView = context(RestOperationTypeEnum.CREATE, patient).entryView().setEntryResource(patient);
+
+		assertNull(entryView.getId());
+		assertFalse(ExpressionEvaluator.evaluate(new ResultSetEvaluationExpression(Set.of("p-1")), entryView, "test"));
+	}
+
+	public void testEntryViewHasIdOfEntry() {
+		ExpressionContext entryView = context(RestOperationTypeEnum.UPDATE, patient("p-1")).entryView().setEntryResource(patient("p-2"));
+
+		assertEquals("p-2", entryView.getId());
+	}
+
+	public void testStoredResourceValuesAreShared() {
+		ExtractedValueCache cache = new ExtractedValueCache(Duration.ofMinutes(1), 100);
+		RuntimeSearchParam family = activeSearchParams.get("family");
+
+		List<String> values = context(RestOperationTypeEnum.READ, patient("p-1", "1", "Novak"), cache).extractValues(family);
+
+		assertEquals(1, cache.size());
+		assertEquals(values, context(RestOperationTypeEnum.READ, patient("p-1", "1", "Novak"), cache).extractValues(family));
+	}
+
+	public void testRequestBodyValuesAreNotShared() {
+		ExtractedValueCache cache = new ExtractedValueCache(Duration.ofMinutes(1), 100);
+		RuntimeSearchParam family = activeSearchParams.get("family");
+		List<String> stored = context(RestOperationTypeEnum.READ, patient("p-1", "1", "Novak"), cache).extractValues(family);
+
+		// The body claims the id and version of the stored resource
+		Patient body = patient("p-1", "1", "Horvat");
+		List<String> created = context(RestOperationTypeEnum.CREATE, body, cache).entryView().setEntryResource(body).extractValues(family);
+		List<String> updated = context(RestOperationTypeEnum.UPDATE, body, cache).extractValues(family);
+
+		assertFalse(created.equals(stored));
+		assertEquals(created, updated);
+		assertEquals(1, cache.size());
+		assertEquals(stored, context(RestOperationTypeEnum.READ, patient("p-1", "1", "Novak"), cache).extractValues(family));
+	}
+
+	private ExpressionContext context(RestOperationTypeEnum operationType, Patient resource) {
+		return context(operationType, resource, null);
+	}
+
+	private ExpressionContext context(RestOperationTypeEnum operationType, Patient resource, ExtractedValueCache cache) {
+		return new ExpressionContext(operationType, () -> resource, () -> resource, () -> activeSearchParams, TestFixtures.EXTRACTOR, cache);
+	}
+
+	private static Patient patient(String id, String version, String family) {
+		Patient patient = new Patient();
+		patient.setId(new IdType("Patient", id, version));
+		patient.addName().setFamily(family);
+		return patient;
+	}
+
+	private static Patient patient(String id) {
+		Patient patient = new Patient();
+		patient.setId(id);
+		return patient;
+	}
+}
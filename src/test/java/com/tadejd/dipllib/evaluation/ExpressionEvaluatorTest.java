@@ -0,0 +1,186 @@
+package com.tadejd.dipllib.evaluation;
+
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import care.better.abac.policy.execute.evaluation.BooleanEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.BooleanOperation;
+import care.better.abac.policy.execute.evaluation.BooleanOperationEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.EvaluationExpression;
+import care.better.abac.policy.execute.evaluation.ResultSetEvaluationExpression;
+import care.better.abac.policy.execute.evaluation.ValueSetEvaluationExpression;
+import com.tadejd.dipllib.TestFixtures;
+import junit.framework.TestCase;
+import org.antlr.v4.runtime.misc.Triple;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Checks compiled decisions against a straightforward interpretation of the decision tree, and the sharing of compiled
+ * decisions between equal trees.
+ *
+ * @author Tadej Delopst
+ */
+public class ExpressionEvaluatorTest extends TestCase {
+	private static final String POLICY = "test";
+	private static final String GENDER_SYSTEM = "http://hl7.org/fhir/administrative-gender";
+
+	public void testCompiledMatchesInterpreted() {
+		List<EvaluationExpression> expressions = List.of(
+			new BooleanEvaluationExpression(true),
+			new BooleanEvaluationExpression(false),
+			new ResultSetEvaluationExpression(Set.of("p-0", "p-3")),
+			valueSet("Patient.gender", GENDER_SYSTEM + "|female"),
+			valueSet("Patient.family", "novak", "horvat"),
+			valueSet("Observation.status", "final"),
+			operation(BooleanOperation.AND, valueSet("Patient.gender", GENDER_SYSTEM + "|male"), new ResultSetEvaluationExpression(Set.of("p-1"))),
+			operation(BooleanOperation.OR, new BooleanEvaluationExpression(false), valueSet("Patient.family", "kranjc")),
+			operation(BooleanOperation.NOT, valueSet("Patient.gender", GENDER_SYSTEM + "|female"), null),
+			operation(BooleanOperation.NOT, null, new ResultSetEvaluationExpression(Set.of("p-2"))),
+			operation(BooleanOperation.OR,
+					  operation(BooleanOperation.NOT, new ResultSetEvaluationExpression(Set.of("p-4")), null),
+					  operation(BooleanOperation.AND, valueSet("Patient.family", "novak"), new BooleanEvaluationExpression(true))));
+
+		ExpressionContext context = TestFixtures.entryContext("Patient");
+		for (EvaluationExpression expression : expressions) {
+			Predicate<ExpressionContext> compiled = ExpressionEvaluator.compile(expression, POLICY);
+			for (Patient patient : patients()) {
+				context.setEntryResource(patient);
+				assertEquals(expression + " on " + patient.getIdPart(), interpret(expression, context), compiled.test(context));
+			}
+		}
+	}
+
+	public void testValueSetOfOtherResourceTypeAllows() {
+		ExpressionContext context = TestFixtures.entryContext("Observation").setEntryResource(new Observation().setId("o-1"));
+
+		assertTrue(ExpressionEvaluator.evaluate(valueSet("Patient.gender", "unknown"), context, POLICY));
+	}
+
+	public void testInvalidPathFailsWhenEvaluated() {
+		Predicate<ExpressionContext> compiled = ExpressionEvaluator.compile(valueSet("gender", "female"), POLICY);
+		ExpressionContext context = TestFixtures.entryContext("Patient").setEntryResource(patients().get(0));
+
+		try {
+			compiled.test(context);
+			fail("Expected an invalid path to be reported");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	public void testEqualTreesShareCompiledDecision() {
+		CompiledExpressionCache cache = new CompiledExpressionCache(1000);
+		Set<String> values = new HashSet<>(List.of("novak", "horvat"));
+
+		Predicate<ExpressionContext> first = cache.compile(
+			operation(BooleanOperation.AND, valueSet("Patient.family", values), new ResultSetEvaluationExpression(Set.of("p-0"))), POLICY);
+		Predicate<ExpressionContext> second = cache.compile(
+			operation(BooleanOperation.AND, valueSet("Patient.family", Set.of("horvat", "novak")), new ResultSetEvaluationExpression(Set.of("p-0"))),
+			POLICY);
+
+		assertSame(first, second);
+		assertEquals(1, cache.size());
+		assertEquals(6, cache.weight());
+	}
+
+	public void testDifferentTreesAndPoliciesAreNotShared() {
+		CompiledExpressionCache cache = new CompiledExpressionCache(1000);
+		EvaluationExpression expression = valueSet("Patient.family", "novak");
+
+		Predicate<ExpressionContext> compiled = cache.compile(expression, POLICY);
+
+		assertNotSame(compiled, cache.compile(expression, "other"));
+		assertNotSame(compiled, cache.compile(valueSet("Patient.family", "horvat"), POLICY));
+		assertNotSame(compiled, cache.compile(valueSet("Patient.given", "novak"), POLICY));
+		assertNotSame(compiled, cache.compile(operation(BooleanOperation.NOT, expression, null), POLICY));
+		assertSame(compiled, cache.compile(expression, POLICY));
+	}
+
+	public void testCacheIsBoundedByWeight() {
+		CompiledExpressionCache cache = new CompiledExpressionCache(6);
+		EvaluationExpression first = valueSet("Patient.family", "a", "b");
+		EvaluationExpression second = valueSet("Patient.family", "c", "d");
+		EvaluationExpression third = valueSet("Patient.family", "e", "f");
+
+		Predicate<ExpressionContext> compiled = cache.compile(first, POLICY);
+		cache.compile(second, POLICY);
+		// Using the first tree again makes the second one the least recently used
+		assertSame(compiled, cache.compile(first, POLICY));
+		cache.compile(third, POLICY);
+
+		assertEquals(2, cache.size());
+		assertEquals(6, cache.weight());
+		assertSame(compiled, cache.compile(first, POLICY));
+		assertEquals(2, cache.size());
+	}
+
+	public void testTreeHeavierThanCacheIsNotCached() {
+		CompiledExpressionCache cache = new CompiledExpressionCache(2);
+		EvaluationExpression expression = valueSet("Patient.family", "a", "b", "c");
+
+		Predicate<ExpressionContext> compiled = cache.compile(expression, POLICY);
+
+		assertEquals(0, cache.size());
+		assertNotSame(compiled, cache.compile(expression, POLICY));
+	}
+
+	/**
+	 * Evaluates the tree node by node, validating and resolving each value set path on every evaluation.
+	 */
+	private static boolean interpret(EvaluationExpression expression, ExpressionContext context) {
+		if (expression instanceof BooleanEvaluationExpression booleanExpr) {
+			return booleanExpr.getBooleanValue();
+		} else if (expression instanceof BooleanOperationEvaluationExpression boolExpr) {
+			return switch (boolExpr.getBooleanOperation()) {
+				case AND -> interpret(boolExpr.getLeftChild(), context) && interpret(boolExpr.getRightChild(), context);
+				case OR -> interpret(boolExpr.getLeftChild(), context) || interpret(boolExpr.getRightChild(), context);
+				case NOT -> !interpret(boolExpr.getLeftChild() != null ? boolExpr.getLeftChild() : boolExpr.getRightChild(), context);
+				default -> throw new UnsupportedOperationException();
+			};
+		} else if (expression instanceof ResultSetEvaluationExpression resultSetExpr) {
+			return context.getId() != null && resultSetExpr.getExternalIds().contains(context.getId());
+		} else if (expression instanceof ValueSetEvaluationExpression valueSetExpr) {
+			IBaseResource resource = context.getTargetResource();
+			Triple<String, String, String> path = ExpressionEvaluator.extractAndValidateExpressionPath(valueSetExpr.getPath(), POLICY);
+			if (!ExpressionContext.getResourceType(resource).equals(path.a)) {
+				return true;
+			}
+			RuntimeSearchParam searchParam = ExpressionEvaluator.validateAndGetSearchParameter(context.getActiveSearchParams(), path.b, path.a, POLICY);
+			List<String> values = new ArrayList<>(valueSetExpr.getValues());
+			return TestFixtures.EXTRACTOR.extractParamValuesAsStrings(searchParam, resource).stream().anyMatch(values::contains);
+		}
+		throw new UnsupportedOperationException();
+	}
+
+	private static List<Patient> patients() {
+		String[] families = {"Novak", "Horvat", "Kranjc", "Novak", "Zupan"};
+		List<Patient> patients = new ArrayList<>();
+		for (int i = 0; i < families.length; i++) {
+			Patient patient = new Patient();
+			patient.setId("p-" + i);
+			patient.addName().setFamily(families[i]);
+			patient.setGender(i % 2 == 0 ? Enumerations.AdministrativeGender.FEMALE : Enumerations.AdministrativeGender.MALE);
+			patients.add(patient);
+		}
+		return patients;
+	}
+
+	private static EvaluationExpression valueSet(String path, String... values) {
+		return valueSet(path, Set.of(values));
+	}
+
+	private static EvaluationExpression valueSet(String path, Set<String> values) {
+		return new ValueSetEvaluationExpression(path, values);
+	}
+
+	private static EvaluationExpression operation(BooleanOperation operation, EvaluationExpression left, EvaluationExpression right) {
+		return new BooleanOperationEvaluationExpression(operation, left, right);
+	}
+}
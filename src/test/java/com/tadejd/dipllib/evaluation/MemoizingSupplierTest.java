@@ -0,0 +1,135 @@
+package com.tadejd.dipllib.evaluation;
+
+import ca.uhn.fhir.jpa.api.dao.IFhirResourceDao;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import junit.framework.TestCase;
+import org.hl7.fhir.r4.model.Patient;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * @author Tadej Delopst
+ */
+public class MemoizingSupplierTest extends TestCase {
+	public void testValueIsLoadedOnce() {
+		AtomicInteger loads = new AtomicInteger();
+		MemoizingSupplier<String> supplier = new MemoizingSupplier<>(() -> "value-" + loads.incrementAndGet());
+
+		assertFalse(supplier.isLoaded());
+		assertEquals("value-1", supplier.get());
+		assertEquals("value-1", supplier.get());
+		assertTrue(supplier.isLoaded());
+		assertEquals(1, loads.get());
+	}
+
+	public void testNullIsRemembered() {
+		AtomicInteger loads = new AtomicInteger();
+		MemoizingSupplier<String> supplier = new MemoizingSupplier<>(() -> {
+			loads.incrementAndGet();
+			return null;
+		});
+
+		assertNull(supplier.get());
+		assertNull(supplier.get());
+		assertEquals(1, loads.get());
+	}
+
+	public void testFailedLoadIsRetried() {
+		AtomicInteger loads = new AtomicInteger();
+		MemoizingSupplier<String> supplier = new MemoizingSupplier<>(() -> {
+			if (loads.incrementAndGet() == 1) {
+				throw new IllegalStateException("unavailable");
+			}
+			return "value";
+		});
+
+		try {
+			supplier.get();
+			fail("Expected the failure of the loader");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		assertFalse(supplier.isLoaded());
+		assertEquals("value", supplier.get());
+		assertEquals(2, loads.get());
+	}
+
+	public void testConcurrentCallersLoadOnce() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		MemoizingSupplier<String> supplier = new MemoizingSupplier<>(() -> {
+			loads.incrementAndGet();
+			loading.countDown();
+			await(release);
+			return "value";
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Future<String> first = executor.submit(supplier::get);
+			assertTrue(loading.await(5, TimeUnit.SECONDS));
+			Future<String> second = executor.submit(supplier::get);
+			Future<String> third = executor.submit(supplier::get);
+			release.countDown();
+
+			assertEquals("value", first.get(5, TimeUnit.SECONDS));
+			assertEquals("value", second.get(5, TimeUnit.SECONDS));
+			assertEquals("value", third.get(5, TimeUnit.SECONDS));
+			assertEquals(1, loads.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testFailedReadIsEvaluatedAsMissingAndRetried() {
+		AtomicInteger reads = new AtomicInteger();
+		Patient patient = new Patient();
+		FhirReadResourceSupplier supplier = new FhirReadResourceSupplier(dao(() -> {
+			if (reads.incrementAndGet() == 1) {
+				throw new IllegalStateException("database unavailable");
+			}
+			return patient;
+		}), "Patient", "p-1");
+
+		assertNull(supplier.get());
+		assertSame(patient, supplier.get());
+		assertSame(patient, supplier.get());
+		assertEquals(2, reads.get());
+	}
+
+	public void testDeletedResourceIsRemembered() {
+		AtomicInteger reads = new AtomicInteger();
+		FhirReadResourceSupplier supplier = new FhirReadResourceSupplier(dao(() -> {
+			reads.incrementAndGet();
+			throw new ResourceGoneException("deleted");
+		}), "Patient", "p-1");
+
+		assertNull(supplier.get());
+		assertNull(supplier.get());
+		assertEquals(1, reads.get());
+	}
+
+	private static IFhirResourceDao<Patient> dao(Supplier<Patient> read) {
+		@SuppressWarnings("unchecked")
+		IFhirResourceDao<Patient> dao = (IFhirResourceDao<Patient>)Proxy.newProxyInstance(
+			IFhirResourceDao.class.getClassLoader(), new Class<?>[]{IFhirResourceDao.class},
+			(proxy, method, args) -> "read".equals(method.getName()) ? read.get() : null);
+		return dao;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
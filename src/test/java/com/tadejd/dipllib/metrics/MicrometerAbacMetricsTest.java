@@ -0,0 +1,67 @@
+package com.tadejd.dipllib.metrics;
+
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import junit.framework.TestCase;
+
+/**
+ * @author Tadej Delopst
+ */
+public class MicrometerAbacMetricsTest extends TestCase {
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final MicrometerAbacMetrics metrics = new MicrometerAbacMetrics(registry);
+
+	public void testDecisionRequestsAreTaggedByPolicyAndOutcome() {
+		metrics.recordDecisionRequest("POLICY", 3, 1000, true);
+		metrics.recordDecisionRequest("POLICY", 2, 1000, true);
+		metrics.recordDecisionRequest("POLICY", 1, 1000, false);
+
+		assertEquals(2, registry.get("abac.client.requests").tag("policy", "POLICY").tag("outcome", "success").timer().count());
+		assertEquals(1, registry.get("abac.client.requests").tag("policy", "POLICY").tag("outcome", "error").timer().count());
+		assertEquals(6.0, registry.get("abac.client.context.entries").tag("policy", "POLICY").counter().count());
+	}
+
+	public void testDecisionsAreTaggedByResourceTypeOperationAndResult() {
+		metrics.recordDecisions("POLICY", "Patient", RestOperationTypeEnum.SEARCH_TYPE, 4, 1);
+		metrics.recordDecisions(null, null, null, 0, 2);
+
+		Counter allowed = registry.get("abac.decisions").tags("policy", "POLICY", "resourceType", "Patient",
+															 "operation", "SEARCH_TYPE", "result", "allowed").counter();
+		assertEquals(4.0, allowed.count());
+		assertEquals(2.0, registry.get("abac.decisions").tags("policy", "unknown", "resourceType", "unknown",
+															 "operation", "unknown", "result", "denied").counter().count());
+		assertTrue(registry.find("abac.decisions").tags("policy", "unknown", "result", "allowed").counters().isEmpty());
+	}
+
+	public void testOtherMetersAreTagged() {
+		metrics.recordCacheLookup("POLICY", 2, 0);
+		metrics.recordCoalescedRequest("POLICY");
+		metrics.recordFallback("POLICY", "circuit_open");
+		metrics.recordContextExtraction("POLICY", "Patient", 10, 1000);
+		metrics.recordReferenceResolution("POLICY", "Patient", 1000);
+		metrics.recordResponseFiltering("Patient", RestOperationTypeEnum.SEARCH_TYPE, 10, 3, 1000);
+
+		assertEquals(2.0, registry.get("abac.cache.lookups").tags("policy", "POLICY", "result", "hit").counter().count());
+		assertTrue(registry.find("abac.cache.lookups").tag("result", "miss").counters().isEmpty());
+		assertEquals(1.0, registry.get("abac.client.coalesced").tag("policy", "POLICY").counter().count());
+		assertEquals(1.0, registry.get("abac.client.fallbacks").tags("policy", "POLICY", "reason", "circuit_open").counter().count());
+		assertEquals(1, registry.get("abac.context.extraction").tags("policy", "POLICY", "resourceType", "Patient").timer().count());
+		assertEquals(1, registry.get("abac.reference.resolution").tags("policy", "POLICY", "resourceType", "Patient").timer().count());
+		assertEquals(1, registry.get("abac.response.filtering").tags("resourceType", "Patient", "operation", "SEARCH_TYPE").timer().count());
+		assertEquals(3.0, registry.get("abac.response.removed").tags("resourceType", "Patient", "operation", "SEARCH_TYPE").counter().count());
+	}
+
+	public void testMetersAreRegisteredOnce() {
+		metrics.recordContextExtraction("POLICY", "Patient", 10, 1000);
+		Timer timer = registry.get("abac.context.extraction").timer();
+		registry.remove(timer);
+
+		// The kept meter is still recorded to, and no new one is registered
+		metrics.recordContextExtraction("POLICY", "Patient", 10, 1000);
+
+		assertEquals(2, timer.count());
+		assertNull(registry.find("abac.context.extraction").timer());
+	}
+}
@@ -0,0 +1,72 @@
+package com.tadejd.dipllib.rule;
+
+import ca.uhn.fhir.context.RuntimeSearchParam;
+import ca.uhn.fhir.rest.server.util.ResourceSearchParams;
+import com.tadejd.dipllib.TestFixtures;
+import junit.framework.TestCase;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Tadej Delopst
+ */
+public class AbacRuleManagerTest extends TestCase {
+	public void testSearchParamsAreSharedWhenRegistryReturnsNewWrappers() {
+		// Every lookup returns a new wrapper around the same search parameters, like the HAPI registry
+		AbacRuleManager manager = new AbacRuleManager(TestFixtures.searchParamRegistry(TestFixtures::readSearchParams));
+
+		Map<String, RuntimeSearchParam> active = manager.getActiveSearchParams("Patient");
+		Map<String, RuntimeSearchParam> allowed = manager.getAllowedSearchParams("Patient");
+
+		assertSame(active, manager.getActiveSearchParams("Patient"));
+		assertSame(allowed, manager.getAllowedSearchParams("Patient"));
+		assertSame(active, manager.createActiveSearchParametersSupplier("Patient").get());
+	}
+
+	public void testSupplierReturnsAllActiveSearchParams() {
+		AbacRuleManager manager = new AbacRuleManager(TestFixtures.searchParamRegistry(TestFixtures::readSearchParams));
+
+		Map<String, RuntimeSearchParam> active = manager.createActiveSearchParametersSupplier("Patient").get();
+
+		assertEquals(TestFixtures.readSearchParams("Patient").getSearchParamNames().size(), active.size());
+		assertTrue(active.keySet().containsAll(manager.getAllowedSearchParams("Patient").keySet()));
+	}
+
+	public void testSearchParamsAreRebuiltWhenRegistryChanges() {
+		AtomicReference<ResourceSearchParams> current = new AtomicReference<>(TestFixtures.readSearchParams("Patient"));
+		AbacRuleManager manager = new AbacRuleManager(TestFixtures.searchParamRegistry(name -> current.get()), Duration.ZERO);
+		Map<String, RuntimeSearchParam> before = manager.getAllowedSearchParams("Patient");
+
+		ResourceSearchParams refreshed = TestFixtures.readSearchParams("Patient");
+		RuntimeSearchParam family = refreshed.get("family");
+		refreshed.put("surname", family);
+		current.set(refreshed);
+
+		Map<String, RuntimeSearchParam> after = manager.getAllowedSearchParams("Patient");
+		assertNotSame(before, after);
+		assertFalse(before.containsKey("surname"));
+		assertSame(family, after.get("surname"));
+
+		current.set(TestFixtures.readSearchParams("Patient"));
+		assertNull(manager.getAllowedSearchParams("Patient").get("surname"));
+	}
+
+	public void testRegistryIsCheckedOncePerInterval() {
+		AtomicInteger lookups = new AtomicInteger();
+		AbacRuleManager manager = new AbacRuleManager(TestFixtures.searchParamRegistry(name -> {
+			lookups.incrementAndGet();
+			return TestFixtures.readSearchParams(name);
+		}), Duration.ofMinutes(1));
+
+		Map<String, RuntimeSearchParam> active = manager.getActiveSearchParams("Patient");
+		for (int i = 0; i < 10; i++) {
+			assertSame(active, manager.getActiveSearchParams("Patient"));
+			manager.getAllowedSearchParams("Patient");
+		}
+
+		assertEquals(1, lookups.get());
+	}
+}